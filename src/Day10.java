@@ -3,8 +3,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
 import java.util.function.Predicate;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.stream.IntStream;
 
 public class Day10 {
     public static void main(String[] args) throws IOException {
@@ -18,7 +17,8 @@ public class Day10 {
         static long answer() throws IOException {
             Set<Point> points = readAndParse();
             assert points.size() > 1;
-            return points.stream().mapToInt(p -> countInsight(points, p)).max().getAsInt();
+            Visibility visibility = new Visibility(points);
+            return visibility.visibleFrom(visibility.bestStation());
         }
     }
 
@@ -27,33 +27,9 @@ public class Day10 {
             Set<Point> points = readAndParse();
             assert points.size() > 200;
 
-            Point center = points.stream().max(Comparator.comparingInt(p -> countInsight(points, p))).get();
-            int vaporizedCount  = 0;
-            while (vaporizedCount <= 200) {
-                List<Point> shotMe = evaporate(points, center);
-                if (shotMe.size() + vaporizedCount > 200) {
-                        Point bet = shotMe.get(200 - vaporizedCount - 1);
-                        return bet.x * 100 + bet.y;
-
-                } else {
-                    vaporizedCount += shotMe.size();
-                    points.removeAll(shotMe);
-                }
-            }
-
-            throw new RuntimeException("Ops");
-        }
-
-        /* The angel of the given point from the y-axis centered at center */
-        static double angel(Point center, Point point) {
-            double theta = Math.atan2(point.x - center.x, center.y - point.y);
-            return theta < 0 ? theta + 2 * Math.PI : theta;
-        }
-
-        static List<Point> evaporate(Set<Point> points, Point center) {
-            return pointsInsight(points, center)
-                    .sorted(Comparator.comparingDouble(p -> angel(center, p)))
-                    .collect(Collectors.toList());
+            Point center = new Visibility(points).bestPoint();
+            Point bet = new VaporizationPlan(points, center).get(199);
+            return bet.x * 100 + bet.y;
         }
     }
 
@@ -105,33 +81,188 @@ public class Day10 {
         return y == 0 ? x : gcd(y, x % y);
     }
 
-    static List<Point> integerPointsInBetween(Point a, Point b) {
-        if (a.x > b.x || a.x == b.x && a.y > b.y) return integerPointsInBetween(b, a);
+    /*
+     * Line of sight by direction buckets: an asteroid hides another exactly when both offsets from the station
+     * reduce to the same (dx / g, dy / g), so the visible count is the number of distinct reduced directions.
+     * O(n^2) over all stations, the outer loop runs in parallel.
+     */
+    static class Visibility {
+        private final int[] xs;
+        private final int[] ys;
+        private final ThreadLocal<DirectionSet> scratch;
 
-        int i = b.x - a.x;
-        int j = b.y - a.y;
-        int gcd = Math.abs(gcd(i, j));
-        i /= gcd;
-        j /= gcd;
+        Visibility(Collection<Point> points) {
+            int size = points.size();
+            xs = new int[size];
+            ys = new int[size];
+            int i = 0;
+            for (Point point : points) {
+                xs[i] = point.x;
+                ys[i] = point.y;
+                i++;
+            }
+            scratch = ThreadLocal.withInitial(() -> new DirectionSet(size));
+        }
 
-        ArrayList<Point> points = new ArrayList<>();
-        for (int x = a.x + i, y = a.y + j; x < b.x || (i == 0 && y < b.y); x += i, y += j) {
-            points.add(new Point(x, y));
+        int size() {
+            return xs.length;
+        }
+
+        Point point(int index) {
+            return new Point(xs[index], ys[index]);
+        }
+
+        /* (dx / g, dy / g) packed in a long, g being the gcd of dx and dy */
+        static long direction(int dx, int dy) {
+            int g = Math.abs(gcd(dx, dy));
+            return (long) (dx / g) << 32 | ((dy / g) & 0xFFFFFFFFL);
+        }
+
+        int visibleFrom(int station) {
+            DirectionSet directions = scratch.get();
+            directions.clear();
+            int sx = xs[station];
+            int sy = ys[station];
+            for (int i = 0; i < xs.length; i++) {
+                if (i != station) directions.add(direction(xs[i] - sx, ys[i] - sy));
+            }
+            return directions.size();
+        }
+
+        int[] visibleCounts() {
+            return IntStream.range(0, xs.length).parallel().map(this::visibleFrom).toArray();
+        }
+
+        /* Index of the asteroid seeing the most others */
+        int bestStation() {
+            int[] counts = visibleCounts();
+            int best = 0;
+            for (int i = 1; i < counts.length; i++) {
+                if (counts[i] > counts[best]) best = i;
+            }
+            return best;
+        }
+
+        Point bestPoint() {
+            return point(bestStation());
         }
-        return points;
     }
 
-    static Stream<Point> pointsInsight(Collection<Point> points, Point point) {
-        return points
-                .stream()
-                .filter(Predicate.not(point::equals))
-                .filter(p -> integerPointsInBetween(point, p)
-                        .stream()
-                        .allMatch(Predicate.not(points::contains)));
+    /* Open addressing set of longs, cleared in O(1) by bumping a generation stamp */
+    static class DirectionSet {
+        private final long[] keys;
+        private final int[] stamps;
+        private final int mask;
+        private int stamp = 1;
+        private int size;
+
+        /* Holds up to `expected` keys between two clears */
+        DirectionSet(int expected) {
+            int capacity = Integer.highestOneBit(Math.max(2, expected) * 2 - 1) << 1;
+            keys = new long[capacity];
+            stamps = new int[capacity];
+            mask = capacity - 1;
+        }
+
+        void clear() {
+            size = 0;
+            if (++stamp == 0) {
+                Arrays.fill(stamps, 0);
+                stamp = 1;
+            }
+        }
+
+        boolean add(long key) {
+            int slot = (int) (key * 0x9E3779B97F4A7C15L >>> 32) & mask;
+            while (stamps[slot] == stamp) {
+                if (keys[slot] == key) return false;
+                slot = (slot + 1) & mask;
+            }
+            stamps[slot] = stamp;
+            keys[slot] = key;
+            size++;
+            return true;
+        }
+
+        int size() {
+            return size;
+        }
     }
 
-    static int countInsight(Collection<Point> points, Point point) {
-        return (int) pointsInsight(points, point).count();
+    /*
+     * Full destruction order of a laser turning clockwise from up. Asteroids are grouped by reduced direction,
+     * groups are ordered by exact angle with integer cross products and each group by distance. Round r
+     * destroys the r-th asteroid of every group, in angle order.
+     */
+    static class VaporizationPlan implements Iterable<Point> {
+        private final Point[] order;
+
+        VaporizationPlan(Collection<Point> points, Point station) {
+            Point[] targets = points.stream().filter(Predicate.not(station::equals)).toArray(Point[]::new);
+            int size = targets.length;
+            int[] dx = new int[size];
+            int[] dy = new int[size];
+            int[] distance = new int[size];
+            Integer[] byAngle = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                int x = targets[i].x - station.x;
+                int y = targets[i].y - station.y;
+                int g = Math.abs(gcd(x, y));
+                dx[i] = x / g;
+                dy[i] = y / g;
+                distance[i] = g;
+                byAngle[i] = i;
+            }
+
+            Arrays.sort(byAngle, (a, b) -> {
+                int angle = compareAngle(dx[a], dy[a], dx[b], dy[b]);
+                return angle != 0 ? angle : Integer.compare(distance[a], distance[b]);
+            });
+
+            /* rank within the group, then a stable counting sort by rank keeps the angle order */
+            int[] rank = new int[size];
+            int rounds = 0;
+            for (int i = 0; i < size; i++) {
+                int current = byAngle[i];
+                if (i > 0) {
+                    int previous = byAngle[i - 1];
+                    if (dx[previous] == dx[current] && dy[previous] == dy[current]) rank[current] = rank[previous] + 1;
+                }
+                rounds = Math.max(rounds, rank[current] + 1);
+            }
+
+            int[] start = new int[rounds + 1];
+            for (int i = 0; i < size; i++) start[rank[i] + 1]++;
+            for (int r = 0; r < rounds; r++) start[r + 1] += start[r];
+
+            order = new Point[size];
+            for (int i = 0; i < size; i++) {
+                int target = byAngle[i];
+                order[start[rank[target]]++] = targets[target];
+            }
+        }
+
+        /* Clockwise from up, with y growing downwards */
+        static int compareAngle(int dx1, int dy1, int dx2, int dy2) {
+            int half1 = dx1 > 0 || dx1 == 0 && dy1 < 0 ? 0 : 1;
+            int half2 = dx2 > 0 || dx2 == 0 && dy2 < 0 ? 0 : 1;
+            if (half1 != half2) return Integer.compare(half1, half2);
+            long cross = (long) dx1 * dy2 - (long) dy1 * dx2;
+            return cross > 0 ? -1 : cross < 0 ? 1 : 0;
+        }
+
+        int size() {
+            return order.length;
+        }
+
+        /* The asteroid destroyed in position n, starting from 0 */
+        Point get(int n) {
+            return order[n];
+        }
+
+        @Override
+        public Iterator<Point> iterator() {
+            return Arrays.asList(order).iterator();
+        }
     }
 }
-
@@ -18,7 +18,7 @@ public class Day11 {
             IntCodeMachine machine = IntCodeMachine.fromFile(INPUT_PATH);
             PaintingRobot robot = new PaintingRobot(0, 0, PaintingRobot.Direction.UP, machine, Color.BLACK);
             robot.paint();
-            return robot.colorMap.size();
+            return robot.panels.visitedCount();
         }
     }
 
@@ -27,35 +27,19 @@ public class Day11 {
             IntCodeMachine machine = IntCodeMachine.fromFile(INPUT_PATH);
             PaintingRobot robot = new PaintingRobot(0, 0, PaintingRobot.Direction.UP, machine, Color.WHITE);
             robot.paint();
-            return draw(robot.colorMap);
+            return draw(robot.panels);
         }
 
         static final String WHITE =  "#";
         static final String BLACK =  " ";
 
-        @SuppressWarnings("OptionalGetWithoutIsPresent")
-        static String draw(Map<Pair<Integer, Integer>, Color> colorMap) {
-            Set<Pair<Integer, Integer>> pairs = colorMap.keySet();
-            assert pairs.size() > 0;
-            int minX = pairs.stream().min(Comparator.comparingInt(Pair::first)).get().first();
-            int minY = pairs.stream().min(Comparator.comparingInt(Pair::second)).get().second();
-            int maxX = pairs.stream().max(Comparator.comparingInt(Pair::first)).get().first();
-            int maxY = pairs.stream().max(Comparator.comparingInt(Pair::second)).get().second();
-
-            Color[][] grid = new Color[maxY - minY + 1][maxX - minX + 1];
-            for (Map.Entry<Pair<Integer, Integer>, Color> entry : colorMap.entrySet()) {
-                Pair<Integer, Integer> position = entry.getKey();
-                int x = position.first() + Math.abs(minX);
-                int y = position.second() + Math.abs(minY);
-                Color color = entry.getValue();
-                grid[y][x] = color;
-            }
+        static String draw(PanelGrid panels) {
+            assert panels.visitedCount() > 0;
 
             StringBuilder stringBuilder = new StringBuilder();
-            for (int i = grid.length - 1; i >= 0; i--) {
-                Color[] row = grid[i];
-                for (Color color : row) {
-                    String s = color == null ? " " : color == Color.BLACK ? BLACK : WHITE;
+            for (int y = panels.maxY(); y >= panels.minY(); y--) {
+                for (int x = panels.minX(); x <= panels.maxX(); x++) {
+                    String s = !panels.isVisited(x, y) ? " " : panels.get(x, y) == Color.BLACK.constant ? BLACK : WHITE;
                     stringBuilder.append(s);
                 }
                 stringBuilder.append('\n');
@@ -82,16 +66,151 @@ public class Day11 {
         }
     }
 
-    static class HashMapWithDefault<K, V> extends HashMap<K, V> {
-        private final V defaultValue;
+    /*
+     * Unbounded grid of 2 bit cells, split in 64 x 64 tiles allocated on first write. Each tile packs 32
+     * cells per long plus a bitmap of the cells ever written. The tile directory grows in every direction,
+     * and the bounds and number of written cells are tracked on every write.
+     */
+    static class PanelGrid {
+        private static final int TILE_BITS = 6;
+        private static final int TILE_SIZE = 1 << TILE_BITS;
+        private static final int TILE_MASK = TILE_SIZE - 1;
 
-        HashMapWithDefault(V defaultValue) {
-            this.defaultValue = defaultValue;
+        private static class Tile {
+            final long[] cells = new long[TILE_SIZE * TILE_SIZE / 32];
+            final long[] visited = new long[TILE_SIZE * TILE_SIZE / 64];
         }
-        @Override
-        public V get(Object key) {
-            V v = super.get(key);
-            return v == null ? defaultValue : v;
+
+        private final int defaultValue;
+        private Tile[][] directory = new Tile[4][4];
+        private int originTx = -2;
+        private int originTy = -2;
+        private Tile lastTile;
+        private int lastTx;
+        private int lastTy;
+
+        private long visitedCount;
+        private int minX = Integer.MAX_VALUE;
+        private int minY = Integer.MAX_VALUE;
+        private int maxX = Integer.MIN_VALUE;
+        private int maxY = Integer.MIN_VALUE;
+
+        /* defaultValue is read from cells never written, values are 0 to 3 */
+        PanelGrid(int defaultValue) {
+            this.defaultValue = checkValue(defaultValue);
+        }
+
+        private static int checkValue(int value) {
+            if (value < 0 || value > 3) throw new IllegalArgumentException("Value doesn't fit in 2 bits: " + value);
+            return value;
+        }
+
+        int get(int x, int y) {
+            Tile tile = tile(x, y, false);
+            int index = index(x, y);
+            if (tile == null || (tile.visited[index >>> 6] >>> index & 1) == 0) return defaultValue;
+            return (int) (tile.cells[index >>> 5] >>> ((index & 31) << 1)) & 0b11;
+        }
+
+        boolean isVisited(int x, int y) {
+            Tile tile = tile(x, y, false);
+            int index = index(x, y);
+            return tile != null && (tile.visited[index >>> 6] >>> index & 1) != 0;
+        }
+
+        void set(int x, int y, int value) {
+            checkValue(value);
+            Tile tile = tile(x, y, true);
+            int index = index(x, y);
+
+            long bit = 1L << index;
+            if ((tile.visited[index >>> 6] & bit) == 0) {
+                tile.visited[index >>> 6] |= bit;
+                visitedCount++;
+                minX = Math.min(minX, x);
+                minY = Math.min(minY, y);
+                maxX = Math.max(maxX, x);
+                maxY = Math.max(maxY, y);
+            }
+
+            int shift = (index & 31) << 1;
+            long word = tile.cells[index >>> 5];
+            tile.cells[index >>> 5] = word & ~(0b11L << shift) | (long) value << shift;
+        }
+
+        long visitedCount() {
+            return visitedCount;
+        }
+
+        int minX() {
+            return minX;
+        }
+
+        int minY() {
+            return minY;
+        }
+
+        int maxX() {
+            return maxX;
+        }
+
+        int maxY() {
+            return maxY;
+        }
+
+        private static int index(int x, int y) {
+            return (y & TILE_MASK) << TILE_BITS | (x & TILE_MASK);
+        }
+
+        private Tile tile(int x, int y, boolean create) {
+            int tx = x >> TILE_BITS;
+            int ty = y >> TILE_BITS;
+            if (lastTile != null && tx == lastTx && ty == lastTy) return lastTile;
+
+            int row = ty - originTy;
+            int col = tx - originTx;
+            if (row < 0 || row >= directory.length || col < 0 || col >= directory[0].length) {
+                if (!create) return null;
+                grow(tx, ty);
+                row = ty - originTy;
+                col = tx - originTx;
+            }
+
+            Tile tile = directory[row][col];
+            if (tile == null) {
+                if (!create) return null;
+                tile = new Tile();
+                directory[row][col] = tile;
+            }
+
+            lastTile = tile;
+            lastTx = tx;
+            lastTy = ty;
+            return tile;
+        }
+
+        /* At least doubles the directory on every side that has to grow */
+        private void grow(int tx, int ty) {
+            int rows = directory.length;
+            int cols = directory[0].length;
+            int minTx = originTx;
+            int minTy = originTy;
+            int maxTx = originTx + cols - 1;
+            int maxTy = originTy + rows - 1;
+
+            if (tx < minTx) minTx = Math.min(tx, originTx - cols);
+            if (tx > maxTx) maxTx = Math.max(tx, maxTx + cols);
+            if (ty < minTy) minTy = Math.min(ty, originTy - rows);
+            if (ty > maxTy) maxTy = Math.max(ty, maxTy + rows);
+
+            Tile[][] grown = new Tile[maxTy - minTy + 1][maxTx - minTx + 1];
+            for (int row = 0; row < rows; row++) {
+                System.arraycopy(directory[row], 0, grown[row + originTy - minTy], originTx - minTx, cols);
+            }
+
+            directory = grown;
+            originTx = minTx;
+            originTy = minTy;
         }
     }
 
@@ -125,7 +244,7 @@ public class Day11 {
 
         private Direction direction;
         private final IntCodeMachine machine;
-        private final HashMap<Pair<Integer, Integer>, Color> colorMap;
+        private final PanelGrid panels;
         boolean setColor = true;
 
         PaintingRobot(int x, int y, Direction initialDirection, IntCodeMachine machine, Color initialColor) {
@@ -133,8 +252,8 @@ public class Day11 {
             this.y = y;
             this.direction = initialDirection;
             this.machine = machine;
-            colorMap = new HashMapWithDefault<>(Color.BLACK);
-            colorMap.put(Pair.of(x, y), initialColor);
+            panels = new PanelGrid((int) Color.BLACK.constant);
+            panels.set(x, y, (int) initialColor.constant);
         }
 
         void paint() {
@@ -144,7 +263,7 @@ public class Day11 {
         @Override
         public void accept(long value) {
             if (setColor) {
-                colorMap.put(Pair.of(x, y), Color.mapConstant(value));
+                panels.set(x, y, (int) Color.mapConstant(value).constant);
             } else {
                 if (value == 0) {
                     direction = direction.turnLeft();
@@ -175,7 +294,7 @@ public class Day11 {
 
         @Override
         public long getAsLong() {
-            return colorMap.get(Pair.of(x, y)).constant;
+            return panels.get(x, y);
         }
     }
 }
@@ -2,10 +2,9 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
-import java.util.function.BiFunction;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 public class Day12 {
     public static void main(String[] args) throws IOException {
@@ -18,50 +17,15 @@ public class Day12 {
 
     static class Part1 {
         static long answer() throws IOException {
-            IntVector3[] positions = readAndParse();
-
-            return simulate(Arrays.asList(positions));
-        }
-
-        static long simulate(List<IntVector3> positions) {
-            List<IntVector3> velocities = positions.stream().map(ignore -> IntVector3.ZERO).collect(Collectors.toList());
-            return simulate(1000, positions, velocities);
-        }
-
-        static long simulate(int steps, List<IntVector3> positions, List<IntVector3> velocities) {
-            if (steps == 0) return zipApply(positions, velocities, Part1::totalEnergy).stream().mapToInt(i -> i).sum();
-
-            List<IntVector3> gravities = positions.stream().map(v -> applyGravity(positions, v)).collect(Collectors.toList());
-            var newVelocities = zipApply(velocities, gravities, IntVector3::add);
-            var newPositions = zipApply(positions, newVelocities, IntVector3::add);
-            return simulate(steps - 1, newPositions, newVelocities);
-        }
-
-        static <A, B, T> List<T> zipApply(List<A> as, List<B> bs, BiFunction<A, B, T> function) {
-            assert as.size() == bs.size();
-            ArrayList<T> ts = new ArrayList<>(as.size());
-            for (int i = 0; i < as.size(); i++) {
-                A a = as.get(i);
-                B b = bs.get(i);
-                T t = function.apply(a, b);
-                ts.add(t);
-            }
-            return ts;
-        }
-
-        static int totalEnergy(IntVector3 position, IntVector3 velocity) {
-            int potential = Math.abs(position.x) + Math.abs(position.y) + Math.abs(position.z);
-            int kinetic = Math.abs(velocity.x) + Math.abs(velocity.y) + Math.abs(velocity.z);
-            return potential * kinetic;
+            MoonSystem system = new MoonSystem(readAndParse());
+            system.simulate(1000);
+            return system.totalEnergy();
         }
     }
 
     static class Part2 {
-
         static long answer() throws IOException {
-            var positions = readAndParse();
-
-            return simulate(positions);
+            return CycleFinder.period(readAndParse());
         }
 
         static long gcd(long x, long y) {
@@ -69,66 +33,10 @@ public class Day12 {
             return y == 0 ? x : gcd(y, x % y);
         }
 
+        /* Throws ArithmeticException when the result doesn't fit in a long */
         static long lcm(long x, long y) {
-            return (x * y) / gcd(x, y);
-        }
-
-        static long simulate(IntVector3[] positions) {
-            int length = positions.length;
-
-            var xs = Arrays.stream(positions).mapToInt(v -> v.x).toArray();
-            var ys = Arrays.stream(positions).mapToInt(v -> v.y).toArray();
-            var zs = Arrays.stream(positions).mapToInt(v -> v.z).toArray();
-
-            var velocities = new IntVector3[length];
-            Arrays.fill(velocities, IntVector3.ZERO);
-
-            var gravities = new IntVector3[length];
-
-            OptionalInt x = OptionalInt.empty();
-            OptionalInt y = OptionalInt.empty();
-            OptionalInt z = OptionalInt.empty();
-
-            for (int i = 1; x.isEmpty() || y.isEmpty() || z.isEmpty(); i++) {
-                Arrays.fill(gravities, IntVector3.ZERO);
-
-                for (int j = 0; j < length; j++) {
-                    gravities[j] = applyGravity(positions, positions[j]);
-                }
-
-                for (int j = 0; j < length; j++) {
-                    velocities[j] = velocities[j].add(gravities[j]);
-                }
-
-                for (int j = 0; j < length; j++) {
-                    positions[j] = positions[j].add(velocities[j]);
-                }
-
-                if (x.isEmpty() &&
-                        Arrays.stream(velocities).allMatch(v -> v.x == 0) &&
-                        Arrays.equals(xs, Arrays.stream(positions).mapToInt(v -> v.x).toArray())) {
-
-                    x = OptionalInt.of(i);
-                }
-
-                if (y.isEmpty() &&
-                        Arrays.stream(velocities).allMatch(v -> v.y == 0) &&
-                        Arrays.equals(ys, Arrays.stream(positions).mapToInt(v -> v.y).toArray())) {
-
-                    y = OptionalInt.of(i);
-                }
-
-                if (z.isEmpty() &&
-                        Arrays.stream(velocities).allMatch(v -> v.z == 0) &&
-                        Arrays.equals(zs, Arrays.stream(positions).mapToInt(v -> v.z).toArray())) {
-
-                    z = OptionalInt.of(i);
-                }
-            }
-
-            return lcm(lcm(x.getAsInt(), y.getAsInt()), z.getAsInt());
+            return Math.multiplyExact(x / gcd(x, y), y);
         }
-
     }
 
     private static IntVector3[] readAndParse() throws IOException {
@@ -183,23 +91,189 @@ public class Day12 {
         }
     }
 
-    static IntVector3 applyGravity(IntVector3 center, IntVector3 vector3) {
-        Comparator<Integer> gravity = Comparator.reverseOrder();
-        int x = gravity.compare(vector3.x, center.x);
-        int y = gravity.compare(vector3.y, center.y);
-        int z = gravity.compare(vector3.z, center.z);
-        return new IntVector3(x, y, z);
-    }
+    /*
+     * Moons as a struct of arrays: one int[] per axis for positions and one for velocities, updated in place.
+     * Axes never interact, so every step is three independent passes.
+     */
+    static class MoonSystem {
+        static final int AXES = 3;
+        /* Above this many moons sorting beats comparing every pair */
+        static final int SORTED_GRAVITY_THRESHOLD = 64;
+
+        final int[][] positions = new int[AXES][];
+        final int[][] velocities = new int[AXES][];
+        private final long[] scratch;
+
+        MoonSystem(IntVector3[] moons) {
+            positions[0] = Arrays.stream(moons).mapToInt(v -> v.x).toArray();
+            positions[1] = Arrays.stream(moons).mapToInt(v -> v.y).toArray();
+            positions[2] = Arrays.stream(moons).mapToInt(v -> v.z).toArray();
+            for (int axis = 0; axis < AXES; axis++) {
+                velocities[axis] = new int[moons.length];
+            }
+            scratch = scratchFor(moons.length);
+        }
 
-    static IntVector3 applyGravity(List<IntVector3> centers, IntVector3 vector3) {
-        return centers.stream()
-                .map(center -> applyGravity(center, vector3))
-                .reduce(IntVector3.ZERO, IntVector3::add);
+        int size() {
+            return positions[0].length;
+        }
+
+        void simulate(long steps) {
+            for (long i = 0; i < steps; i++) {
+                for (int axis = 0; axis < AXES; axis++) {
+                    step(positions[axis], velocities[axis], scratch);
+                }
+            }
+        }
+
+        long totalEnergy() {
+            long total = 0;
+            for (int moon = 0; moon < size(); moon++) {
+                long potential = 0;
+                long kinetic = 0;
+                for (int axis = 0; axis < AXES; axis++) {
+                    potential += Math.abs(positions[axis][moon]);
+                    kinetic += Math.abs(velocities[axis][moon]);
+                }
+                total += potential * kinetic;
+            }
+            return total;
+        }
+
+        /* Scratch space step needs for that many moons */
+        static long[] scratchFor(int moons) {
+            return new long[moons > SORTED_GRAVITY_THRESHOLD ? moons : 0];
+        }
+
+        /* One step along a single axis, scratch comes from scratchFor */
+        static void step(int[] positions, int[] velocities, long[] scratch) {
+            if (positions.length > SORTED_GRAVITY_THRESHOLD) {
+                applyGravitySorted(positions, velocities, scratch);
+            } else {
+                applyGravity(positions, velocities);
+            }
+            for (int i = 0; i < positions.length; i++) {
+                positions[i] += velocities[i];
+            }
+        }
+
+        /* Every pair pulls both moons one unit towards each other */
+        static void applyGravity(int[] positions, int[] velocities) {
+            int length = positions.length;
+            for (int i = 0; i < length; i++) {
+                int p = positions[i];
+                int pull = 0;
+                for (int j = i + 1; j < length; j++) {
+                    int q = positions[j];
+                    int direction = Integer.compare(q, p);
+                    pull += direction;
+                    velocities[j] -= direction;
+                }
+                velocities[i] += pull;
+            }
+        }
+
+        /*
+         * The pull on a moon is the number of moons with a greater position minus the number with a smaller
+         * one. Sorting (position, index) pairs gives both counts for every group of equal positions, O(n log n).
+         */
+        static void applyGravitySorted(int[] positions, int[] velocities, long[] scratch) {
+            int length = positions.length;
+            for (int i = 0; i < length; i++) {
+                scratch[i] = (long) positions[i] << 32 | i;
+            }
+            Arrays.sort(scratch, 0, length);
+
+            for (int start = 0; start < length; ) {
+                int position = (int) (scratch[start] >> 32);
+                int end = start + 1;
+                while (end < length && (int) (scratch[end] >> 32) == position) end++;
+
+                int pull = (length - end) - start;
+                for (int i = start; i < end; i++) {
+                    velocities[(int) scratch[i]] += pull;
+                }
+                start = end;
+            }
+        }
     }
 
-    static IntVector3 applyGravity(IntVector3[] centers, IntVector3 vector3) {
-        return Arrays.stream(centers)
-                .map(center -> applyGravity(center, vector3))
-                .reduce(IntVector3.ZERO, IntVector3::add);
+    /*
+     * Axes are independent, so the system repeats after the lcm of the period of every axis. Each axis is
+     * searched on its own worker over primitive arrays.
+     */
+    static class CycleFinder {
+        static long period(IntVector3[] moons) {
+            MoonSystem system = new MoonSystem(moons);
+            return IntStream
+                    .range(0, MoonSystem.AXES)
+                    .parallel()
+                    .mapToLong(axis -> periodOfAxis(system.positions[axis]))
+                    .reduce(1, Part2::lcm);
+        }
+
+        /*
+         * Steps until the axis is back to its initial positions with zero velocities, compared in place.
+         * A step can be undone, so every cycle passes through the initial state.
+         */
+        static long periodOfAxis(int[] initialPositions) {
+            int length = initialPositions.length;
+            int[] positions = Arrays.copyOf(initialPositions, length);
+            int[] velocities = new int[length];
+            long[] scratch = MoonSystem.scratchFor(length);
+
+            for (long steps = 1; ; steps++) {
+                MoonSystem.step(positions, velocities, scratch);
+
+                boolean initial = true;
+                for (int i = 0; i < length && initial; i++) {
+                    initial = velocities[i] == 0 && positions[i] == initialPositions[i];
+                }
+                if (initial) return steps;
+            }
+        }
+
+        /*
+         * Brent's cycle detection for an axis starting from any state, the cycle need not contain the start.
+         * Returns {mu, lambda}: steps before the cycle is entered and its length.
+         */
+        static long[] brent(int[] initialPositions, int[] initialVelocities) {
+            int[] tortoisePositions = initialPositions.clone();
+            int[] tortoiseVelocities = initialVelocities.clone();
+            int[] harePositions = initialPositions.clone();
+            int[] hareVelocities = initialVelocities.clone();
+            long[] scratch = MoonSystem.scratchFor(initialPositions.length);
+            MoonSystem.step(harePositions, hareVelocities, scratch);
+
+            long power = 1;
+            long lambda = 1;
+            while (!Arrays.equals(tortoisePositions, harePositions) || !Arrays.equals(tortoiseVelocities, hareVelocities)) {
+                if (power == lambda) {
+                    System.arraycopy(harePositions, 0, tortoisePositions, 0, harePositions.length);
+                    System.arraycopy(hareVelocities, 0, tortoiseVelocities, 0, hareVelocities.length);
+                    power *= 2;
+                    lambda = 0;
+                }
+                MoonSystem.step(harePositions, hareVelocities, scratch);
+                lambda++;
+            }
+
+            System.arraycopy(initialPositions, 0, tortoisePositions, 0, initialPositions.length);
+            System.arraycopy(initialVelocities, 0, tortoiseVelocities, 0, initialVelocities.length);
+            System.arraycopy(initialPositions, 0, harePositions, 0, initialPositions.length);
+            System.arraycopy(initialVelocities, 0, hareVelocities, 0, initialVelocities.length);
+            for (long i = 0; i < lambda; i++) {
+                MoonSystem.step(harePositions, hareVelocities, scratch);
+            }
+
+            long mu = 0;
+            while (!Arrays.equals(tortoisePositions, harePositions) || !Arrays.equals(tortoiseVelocities, hareVelocities)) {
+                MoonSystem.step(tortoisePositions, tortoiseVelocities, scratch);
+                MoonSystem.step(harePositions, hareVelocities, scratch);
+                mu++;
+            }
+
+            return new long[]{mu, lambda};
+        }
     }
 }
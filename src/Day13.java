@@ -1,4 +1,7 @@
+import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
@@ -19,7 +22,7 @@ public class Day13 {
             IntCodeMachine machine = IntCodeMachine.fromFile(INPUT_PATH);
             ArcadeCabinet cabinet = new ArcadeCabinet(false);
             machine.runSynchronously(cabinet, cabinet);
-            return cabinet.grid.values().stream().filter(tile -> tile == Tile.BLOCK).count();
+            return cabinet.blockCount();
         }
     }
 
@@ -37,18 +40,35 @@ public class Day13 {
 
             ArcadeCabinet cabinet = new ArcadeCabinet(true);
             machine.runSynchronously(cabinet, cabinet);
+            cabinet.finish();
             return cabinet.getScore();
         }
+
+        /* Plays full headless games back to back as an Intcode throughput benchmark, returns games per second */
+        static double benchmark(int games) throws IOException {
+            IntCodeMachine pristine = IntCodeMachine.fromFile(INPUT_PATH, memory -> memory[0] = 2);
+
+            long start = System.nanoTime();
+            for (int i = 0; i < games; i++) {
+                ArcadeCabinet cabinet = new ArcadeCabinet(false);
+                pristine.fork().runSynchronously(cabinet, cabinet);
+            }
+            return games * 1e9 / (System.nanoTime() - start);
+        }
     }
 
     static class ArcadeCabinet implements LongSupplier, LongConsumer {
 
-        final Map<Pair<Long, Long>, Tile> grid = new HashMap<>();
+        /* grid[y][x] holds Tile constants, grown on demand */
+        private byte[][] grid = new byte[32][64];
+        private int width = 0;
+        private int height = 0;
+        private long blockCount = 0;
 
         static final int readXState = 0;
         static final int readYState = 1;
         static final int readIdState = 2;
-        private final boolean interactiveRender;
+        private final TerminalRenderer renderer; /* null when headless */
 
         private long score = 0;
 
@@ -60,7 +80,11 @@ public class Day13 {
         private long paddleX = 0;
 
         ArcadeCabinet(boolean interactiveRender) {
-            this.interactiveRender = interactiveRender;
+            this(interactiveRender ? new TerminalRenderer(System.out, TerminalRenderer.DEFAULT_FRAMES_PER_SECOND) : null);
+        }
+
+        ArcadeCabinet(TerminalRenderer renderer) {
+            this.renderer = renderer;
         }
 
         private void stateTransition() {
@@ -81,7 +105,7 @@ public class Day13 {
                         score = value;
                     } else {
                         Tile tile = Tile.mapConstant((int) value);
-                        grid.put(Pair.of(x, y), tile);
+                        put((int) x, (int) y, tile);
                         if (tile == Tile.BALL) {
                             ballX = x;
                         } else if(tile == Tile.HORIZONTAL_PADDLE) {
@@ -93,60 +117,71 @@ public class Day13 {
             stateTransition();
         }
 
-        @Override
-        public long getAsLong() {
-            if (interactiveRender) {
-                /* Clear console */
-                System.out.print("\033[H\033[2J");
-                System.out.flush();
-
-                String render = render();
-                System.out.println(render);
+        private void put(int x, int y, Tile tile) {
+            if (x < 0 || y < 0) throw new IllegalArgumentException("Tile outside the screen: " + x + ", " + y);
+            if (y >= grid.length || x >= grid[0].length) {
+                byte[][] grown = new byte[Math.max(grid.length, Integer.highestOneBit(y) * 2)][];
+                int columns = Math.max(grid[0].length, Integer.highestOneBit(x) * 2);
+                for (int row = 0; row < grown.length; row++) {
+                    grown[row] = row < grid.length ? Arrays.copyOf(grid[row], columns) : new byte[columns];
+                }
+                grid = grown;
             }
 
-            try {
-                Thread.sleep(50);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
+            int previous = grid[y][x];
+            if (previous == Tile.BLOCK.constant) blockCount--;
+            if (tile == Tile.BLOCK) blockCount++;
+            grid[y][x] = (byte) tile.constant;
 
-            return Long.compare(ballX, paddleX);
+            width = Math.max(width, x + 1);
+            height = Math.max(height, y + 1);
         }
 
-        String render() {
-            int maxX = (int)(long) grid.keySet().stream().max(Comparator.comparingLong(Pair::first)).orElseThrow().first();
-            int maxY = (int)(long) grid.keySet().stream().max(Comparator.comparingLong(Pair::second)).orElseThrow().second();
+        Tile tileAt(int x, int y) {
+            return x < width && y < height ? Tile.mapConstant(grid[y][x]) : Tile.EMPTY;
+        }
 
-            String[][] array = new String[maxY + 1][maxX + 1];
-            for (String[] strings : array) {
-                Arrays.fill(strings, " ");
-            }
+        /* mapTile of the tile at x, y, straight from the grid */
+        char charAt(int x, int y) {
+            return x < width && y < height ? TILE_CHARS[grid[y][x]] : TILE_CHARS[Tile.EMPTY.constant];
+        }
 
-            for (Map.Entry<Pair<Long, Long>, Tile> entry : grid.entrySet()) {
-                Pair<Long, Long> key = entry.getKey();
-                int x = (int)(long) key.first();
-                int y = (int)(long) key.second();
-                String text = mapTile(entry.getValue());
-                array[y][x] = text;
-            }
+        long blockCount() {
+            return blockCount;
+        }
 
+        int width() {
+            return width;
+        }
 
-            StringBuilder builder = new StringBuilder();
-            for (String[] row : array) {
-               builder.append(String.join("", row)).append('\n');
-            }
+        int height() {
+            return height;
+        }
+
+        @Override
+        public long getAsLong() {
+            if (renderer != null) renderer.frame(this);
+            return Long.compare(ballX, paddleX);
+        }
+
+        /* Draws the final state when rendering */
+        void finish() {
+            if (renderer != null) renderer.draw(this);
+        }
 
-            builder.append("Score: ").append(score);
-            return builder.toString();
+        /* mapTile indexed by tile constant */
+        private static final char[] TILE_CHARS = new char[Tile.VALUES.length];
+        static {
+            for (Tile tile : Tile.VALUES) TILE_CHARS[tile.constant] = mapTile(tile);
         }
 
-        private static String mapTile(Tile tile) {
+        static char mapTile(Tile tile) {
             switch (tile) {
-                case EMPTY: return " ";
-                case WALL: return "|";
-                case BLOCK: return "#";
-                case HORIZONTAL_PADDLE: return "_";
-                case BALL: return "*";
+                case EMPTY: return ' ';
+                case WALL: return '|';
+                case BLOCK: return '#';
+                case HORIZONTAL_PADDLE: return '_';
+                case BALL: return '*';
                 default:
                     throw new Error("Should not get here");
             }
@@ -157,6 +192,90 @@ public class Day13 {
         }
     }
 
+    /*
+     * Keeps the last drawn frame and only writes the cells that changed since, each as a cursor move followed
+     * by the character, through one buffered stream. Frames are dropped when they come faster than the frame
+     * rate cap, so rendering never slows the game down.
+     */
+    static class TerminalRenderer {
+        static final int DEFAULT_FRAMES_PER_SECOND = 30;
+
+        private final PrintStream out;
+        private final long frameIntervalNanos;
+        private char[][] shown = new char[0][];
+        private long shownScore = Long.MIN_VALUE;
+        private long lastFrame;
+        private boolean cleared = false;
+
+        TerminalRenderer(OutputStream out, int framesPerSecond) {
+            if (framesPerSecond <= 0) throw new IllegalArgumentException("Invalid frame rate: " + framesPerSecond);
+            this.out = new PrintStream(new BufferedOutputStream(out, 1 << 16), false);
+            this.frameIntervalNanos = 1_000_000_000L / framesPerSecond;
+        }
+
+        /* Draws unless the previous frame is more recent than the frame interval */
+        void frame(ArcadeCabinet cabinet) {
+            long now = System.nanoTime();
+            if (cleared && now - lastFrame < frameIntervalNanos) return;
+            lastFrame = now;
+            draw(cabinet);
+        }
+
+        void draw(ArcadeCabinet cabinet) {
+            if (!cleared) {
+                out.print("\033[H\033[2J");
+                cleared = true;
+            }
+
+            int height = cabinet.height();
+            int width = cabinet.width();
+            if (shown.length < height || height > 0 && shown[0].length < width) resize(width, height);
+
+            for (int y = 0; y < height; y++) {
+                char[] row = shown[y];
+                for (int x = 0; x < width; x++) {
+                    char c = cabinet.charAt(x, y);
+                    if (row[x] != c) {
+                        moveTo(y, x);
+                        out.print(c);
+                        row[x] = c;
+                    }
+                }
+            }
+
+            if (cabinet.getScore() != shownScore) {
+                shownScore = cabinet.getScore();
+                moveTo(height, 0);
+                out.print("Score: ");
+                out.print(shownScore);
+                out.print("\033[K");
+            }
+
+            moveTo(height + 1, 0);
+            out.flush();
+        }
+
+        private void resize(int width, int height) {
+            char[][] grown = new char[Math.max(height, shown.length)][];
+            for (int y = 0; y < grown.length; y++) {
+                /* '\0' marks cells never drawn */
+                grown[y] = new char[Math.max(width, y < shown.length ? shown[y].length : 0)];
+                if (y < shown.length) System.arraycopy(shown[y], 0, grown[y], 0, shown[y].length);
+            }
+            shown = grown;
+            shownScore = Long.MIN_VALUE;
+        }
+
+        /* Zero based row and column */
+        private void moveTo(int row, int column) {
+            out.print("\033[");
+            out.print(row + 1);
+            out.print(';');
+            out.print(column + 1);
+            out.print('H');
+        }
+    }
+
     enum Tile {
         EMPTY(0),
         WALL(1),
@@ -164,6 +283,8 @@ public class Day13 {
         HORIZONTAL_PADDLE(3),
         BALL(4);
 
+        private static final Tile[] VALUES = values();
+
         final int constant;
         Tile(int constant) {
 
@@ -171,7 +292,7 @@ public class Day13 {
         }
 
         static Tile mapConstant(int constant) {
-            for (Tile tile : Tile.values()) {
+            for (Tile tile : VALUES) {
                 if (tile.constant == constant) return tile;
             }
             throw new IllegalArgumentException("Unknown tile id: " + constant);
@@ -1,11 +1,14 @@
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
-import java.util.function.BiFunction;
-import java.util.function.Function;
-import java.util.function.LongBinaryOperator;
-import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 public class Day14 {
     public static void main(String[] args) throws IOException {
@@ -18,164 +21,413 @@ public class Day14 {
     static class Part1 {
 
         static long answer() throws IOException {
-            List<Reaction> reactions = Files.readAllLines(INPUT_PATH).stream().map(Reaction::parse).collect(Collectors.toList());
-
-            Map<String, Long> map = Map.of("ORE", Long.MAX_VALUE);
-            Map<String, Long> result = tryProduceFuel(reactions, map, 1);
-            assert result.containsKey("FUEL");
-
-            return Long.MAX_VALUE - result.get("ORE");
+            return new ReactionSolver(ReactionGraph.parse(INPUT_PATH)).oreFor(1);
         }
     }
 
     static class Part2 {
         static long answer() throws IOException {
-            List<Reaction> reactions = Files.readAllLines(INPUT_PATH).stream().map(Reaction::parse).collect(Collectors.toList());
-
-            long trillion = 1000000000000L;
-            Map<String, Long> map = new HashMap<>();
-            map.put("ORE", trillion);
-            long totalFuel = 0;
-
-            /*
-            * Try to produce one million fuel, if it's not possible, try half the amount,
-            * keep retrying until we hit zero, implying we don't have enough ore to produce _any_ fuel.
-            * In that case, we try to turn the excess elements back to ore.
-            * If we can't, exit loop.
-            * */
-
-            do { // Loop until no more fuel can be produced AND no more ore can be produced;
-                long amount = 10000000;
-
-                while (amount >= 1) {
-                    map = tryProduceFuel(reactions, map, amount);
-                    if (map.containsKey("FUEL")) {
-                        totalFuel += map.get("FUEL");
-                        map.remove("FUEL");
-                    } else {
-                        amount = amount / 2;
-                    }
-                }
+            return new ReactionSolver(ReactionGraph.parse(INPUT_PATH)).maxFuel(1000000000000L);
+        }
+    }
 
-            } while (tryProduceOre(reactions, map));
+    /*
+     * Reactions compiled to interned chemical ids, each reaction indexed by its product with the reactants in
+     * CSR form. The graph lives in a single buffer laid out exactly as the binary artifact:
+     *
+     *   int magic, int version, int chemicals, int terms, int ore, int fuel
+     *   long produced[chemicals]      units made by the reaction producing the chemical, 0 for ore
+     *   long amounts[terms]           amount of each reactant
+     *   int reactantStart[chemicals + 1]
+     *   int reactants[terms]          reactants of chemical c are in [reactantStart[c], reactantStart[c + 1])
+     *
+     * so writing it is one copy and loading it is one memory map. Names are only needed while parsing and
+     * are not kept.
+     */
+    static class ReactionGraph {
+        static final String ORE = "ORE";
+        static final String FUEL = "FUEL";
+
+        private static final int MAGIC = 0x52584E47;
+        private static final int VERSION = 1;
+        private static final int HEADER_BYTES = 6 * Integer.BYTES;
+
+        private final ByteBuffer buffer;
+        private final int chemicals;
+        private final int ore;
+        private final int fuel;
+        private final LongBuffer produced;
+        private final LongBuffer amounts;
+        private final IntBuffer reactantStart;
+        private final IntBuffer reactants;
+
+        private ReactionGraph(ByteBuffer buffer) {
+            if (buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC) throw new IllegalArgumentException("Not a reaction graph");
+            if (buffer.getInt(4) != VERSION) throw new IllegalArgumentException("Unsupported version " + buffer.getInt(4));
+            this.buffer = buffer;
+            this.chemicals = buffer.getInt(8);
+            int terms = buffer.getInt(12);
+            this.ore = buffer.getInt(16);
+            this.fuel = buffer.getInt(20);
+            if (chemicals < 0 || terms < 0 || size(chemicals, terms) != buffer.capacity()) {
+                throw new IllegalArgumentException("Truncated reaction graph");
+            }
+            if (ore < 0 || ore >= chemicals || fuel < 0 || fuel >= chemicals) throw new IllegalArgumentException("Invalid ore or fuel id");
+
+            int offset = HEADER_BYTES;
+            this.produced = section(offset, chemicals * Long.BYTES).asLongBuffer();
+            offset += chemicals * Long.BYTES;
+            this.amounts = section(offset, terms * Long.BYTES).asLongBuffer();
+            offset += terms * Long.BYTES;
+            this.reactantStart = section(offset, (chemicals + 1) * Integer.BYTES).asIntBuffer();
+            offset += (chemicals + 1) * Integer.BYTES;
+            this.reactants = section(offset, terms * Integer.BYTES).asIntBuffer();
+        }
 
-            return totalFuel;
+        private static long size(long chemicals, long terms) {
+            return HEADER_BYTES + (chemicals + terms) * Long.BYTES + (chemicals + 1 + terms) * Integer.BYTES;
         }
-    }
 
-    static boolean containsEnough(Map<String, Long> map, String element, long amount) {
-        return map.containsKey(element) && map.get(element) >= amount;
-    }
+        private ByteBuffer section(int offset, int length) {
+            return buffer.duplicate().position(offset).limit(offset + length).slice();
+        }
 
+        int chemicals() {
+            return chemicals;
+        }
 
-    static boolean containsEnough(Map<String, Long> all, Map<String, Long> part) {
-        return part.entrySet().stream().allMatch(e -> containsEnough(all, e.getKey(), e.getValue()));
-    }
+        int ore() {
+            return ore;
+        }
 
-    /* Applies the reaction, consuming reactants from map, and putting the product into it */
-    static void applyReaction(Reaction reaction, Map<String, Long> map) {
-        if (containsEnough(map, reaction.reactants)) {
-            reaction.reactants.forEach((r,c) -> map.computeIfPresent(r, (k,v) -> v - c));
-            map.computeIfPresent(reaction.product, (k,v) -> v + reaction.productCoefficient);
-            map.putIfAbsent(reaction.product, reaction.productCoefficient);
+        int fuel() {
+            return fuel;
         }
-        else {
-            throw new IllegalArgumentException();
+
+        long produced(int chemical) {
+            return produced.get(chemical);
         }
-    }
 
-    /* Tries to produce targetAmount of fuel, returns a new map if it had, otherwise the original input */
-    static Map<String, Long> tryProduceFuel(List<Reaction> reactions, Map<String, Long> available, long targetAmount) {
+        int reactantStart(int chemical) {
+            return reactantStart.get(chemical);
+        }
 
-        HashMap<String, Long> map = new HashMap<>(available);
-        Stack<Pair<String, Long>> stack = new Stack<>();
-        stack.push(Pair.of("FUEL", targetAmount));
+        int reactant(int term) {
+            return reactants.get(term);
+        }
 
-        Function<String, Long> getQuantity = key -> map.getOrDefault(key, 0L);
+        long amount(int term) {
+            return amounts.get(term);
+        }
 
-        LongBinaryOperator divCeil = (l1, l2) -> (long) Math.ceil((double) l1 / l2);
+        /* Writes the binary artifact */
+        void write(Path path) throws IOException {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer source = buffer.duplicate().clear();
+                while (source.hasRemaining()) channel.write(source);
+            }
+        }
 
-        while (!stack.isEmpty()) {
-            var pair = stack.pop();
-            String element = pair.first();
-            Long quantityRequired = pair.second();
+        /* Maps an artifact written by write, the graph is read straight from the mapping */
+        static ReactionGraph load(Path path) throws IOException {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                if (channel.size() > Integer.MAX_VALUE) throw new IllegalArgumentException("Reaction graph too large: " + channel.size());
+                return new ReactionGraph(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            }
+        }
 
-            if (containsEnough(map, element, quantityRequired)) continue;
+        /* Compiles lines like "7 A, 1 B => 1 C" in a single pass over the bytes */
+        static ReactionGraph parse(Path path) throws IOException {
+            return new Parser(Files.readAllBytes(path)).compile();
+        }
 
-            Optional<Reaction> optionalReaction = reactions.stream()
-                    .filter(r -> r.product.equals(element))
-                    .map(r -> {
-                        long factor = divCeil.applyAsLong(quantityRequired - getQuantity.apply(element), r.productCoefficient);
-                        return r.multiply(factor);
-                    })
-                    .findFirst();
+        private static class Parser {
+            private final byte[] text;
+            private int position;
+            private int line = 1;
+
+            private final Map<String, Integer> ids = new HashMap<>();
+            /* Per reaction: product, units produced, and where its terms start */
+            private int reactions;
+            private int[] products = new int[16];
+            private long[] producedAmounts = new long[16];
+            private int[] termStart = new int[17];
+            private int terms;
+            private int[] termChemicals = new int[64];
+            private long[] termAmounts = new long[64];
+
+            Parser(byte[] text) {
+                this.text = text;
+                ids.put(ORE, 0);
+                ids.put(FUEL, 1);
+            }
 
-            if (optionalReaction.isEmpty()) return available;
+            ReactionGraph compile() {
+                while (skipBlankLines()) {
+                    parseReaction();
+                }
+                return build();
+            }
 
-            Reaction reaction = optionalReaction.get();
+            private boolean skipBlankLines() {
+                while (position < text.length && (text[position] == '\n' || text[position] == '\r' || text[position] == ' ')) {
+                    if (text[position] == '\n') line++;
+                    position++;
+                }
+                return position < text.length;
+            }
 
-            if (containsEnough(map, reaction.reactants)) {
-                applyReaction(reaction, map);
+            private void parseReaction() {
+                while (true) {
+                    long amount = number();
+                    int chemical = chemical();
+                    addTerm(chemical, amount);
+                    skipSpaces();
+                    if (peek() == ',') {
+                        position++;
+                    } else {
+                        break;
+                    }
+                }
+                expect('=');
+                expect('>');
+                long amount = number();
+                int product = chemical();
+                if (amount <= 0) throw error("Reaction must produce something");
+                addReaction(product, amount);
             }
-            else {
-                stack.push(pair);
-                for (var reactant : reaction.reactants.entrySet()) {
-                    stack.push(Pair.of(reactant.getKey(), reactant.getValue()));
+
+            private long number() {
+                skipSpaces();
+                int start = position;
+                long value = 0;
+                while (position < text.length && text[position] >= '0' && text[position] <= '9') {
+                    value = Math.addExact(Math.multiplyExact(value, 10), text[position++] - '0');
                 }
+                if (position == start) throw error("Expected a number");
+                return value;
             }
-        }
 
-        return map;
-    }
+            private int chemical() {
+                skipSpaces();
+                int start = position;
+                while (position < text.length && Character.isLetterOrDigit(text[position])) position++;
+                if (position == start) throw error("Expected a chemical");
+                String name = new String(text, start, position - start, StandardCharsets.US_ASCII);
+                Integer id = ids.putIfAbsent(name, ids.size());
+                return id == null ? ids.size() - 1 : id;
+            }
 
-    /* Applies reactions in reverse trying to produce ore, returns true if at least one ore is produced */
-    /* Mutates _map_ */
-    static boolean tryProduceOre(List<Reaction> reactions, Map<String, Long> map) {
-        boolean atLeastOne = false;
-        while (reactions.stream()
-                .filter(reaction -> containsEnough(map, reaction.product, reaction.productCoefficient))
-                .map(reaction -> reaction.multiply(map.get(reaction.product) / reaction.productCoefficient))
-                .peek(reaction -> applyReaction(reaction, map))
-                .mapToInt(ignore -> 1)
-                .sum() > 0) {
+            private void skipSpaces() {
+                while (position < text.length && (text[position] == ' ' || text[position] == '\t')) position++;
+            }
+
+            private int peek() {
+                return position < text.length ? text[position] : -1;
+            }
+
+            private void expect(char c) {
+                skipSpaces();
+                if (peek() != c) throw error("Expected '" + c + "'");
+                position++;
+            }
+
+            private IllegalArgumentException error(String message) {
+                return new IllegalArgumentException(message + " on line " + line);
+            }
+
+            private void addTerm(int chemical, long amount) {
+                if (terms == termChemicals.length) {
+                    termChemicals = Arrays.copyOf(termChemicals, terms * 2);
+                    termAmounts = Arrays.copyOf(termAmounts, terms * 2);
+                }
+                termChemicals[terms] = chemical;
+                termAmounts[terms] = amount;
+                terms++;
+            }
 
-            atLeastOne = true;
+            private void addReaction(int product, long amount) {
+                if (reactions == products.length) {
+                    products = Arrays.copyOf(products, reactions * 2);
+                    producedAmounts = Arrays.copyOf(producedAmounts, reactions * 2);
+                    termStart = Arrays.copyOf(termStart, reactions * 2 + 1);
+                }
+                products[reactions] = product;
+                producedAmounts[reactions] = amount;
+                termStart[++reactions] = terms;
+            }
+
+            /* Reorders the reactions by product into the artifact layout */
+            private ReactionGraph build() {
+                int chemicals = ids.size();
+                long size = size(chemicals, terms);
+                if (size > Integer.MAX_VALUE) throw new IllegalArgumentException("Reaction graph too large: " + size);
+
+                int[] reactionOf = new int[chemicals];
+                Arrays.fill(reactionOf, -1);
+                for (int r = 0; r < reactions; r++) {
+                    if (reactionOf[products[r]] != -1) throw new IllegalArgumentException("Two reactions produce the same chemical");
+                    reactionOf[products[r]] = r;
+                }
+
+                ByteBuffer buffer = ByteBuffer.allocate((int) size);
+                buffer.putInt(MAGIC).putInt(VERSION).putInt(chemicals).putInt(terms).putInt(ids.get(ORE)).putInt(ids.get(FUEL));
+                for (int c = 0; c < chemicals; c++) {
+                    buffer.putLong(reactionOf[c] == -1 ? 0 : producedAmounts[reactionOf[c]]);
+                }
+                for (int c = 0; c < chemicals; c++) {
+                    int r = reactionOf[c];
+                    if (r == -1) continue;
+                    for (int t = termStart[r]; t < termStart[r + 1]; t++) buffer.putLong(termAmounts[t]);
+                }
+                int start = 0;
+                for (int c = 0; c < chemicals; c++) {
+                    buffer.putInt(start);
+                    if (reactionOf[c] != -1) start += termStart[reactionOf[c] + 1] - termStart[reactionOf[c]];
+                }
+                buffer.putInt(start);
+                for (int c = 0; c < chemicals; c++) {
+                    int r = reactionOf[c];
+                    if (r == -1) continue;
+                    for (int t = termStart[r]; t < termStart[r + 1]; t++) buffer.putInt(termChemicals[t]);
+                }
+
+                return new ReactionGraph(buffer);
+            }
         }
-        return atLeastOne;
     }
 
-    static class Reaction {
-        final Map<String, Long> reactants;
-        final String product;
-        final long productCoefficient;
+    /*
+     * Chemicals are ordered so that each comes before everything it is made of, so one pass in that order
+     * turns the demand for fuel into the demand for ore: by the time a chemical is reached every consumer
+     * has already added to its demand. Leftovers never need tracking.
+     */
+    static class ReactionSolver {
+        private final ReactionGraph graph;
+        private final int ore;
+        private final int fuel;
+        /* Chemicals needed for fuel, every one before its reactants */
+        private final int[] order;
+        private final ThreadLocal<long[]> demand;
+
+        ReactionSolver(ReactionGraph graph) {
+            this.graph = graph;
+            this.ore = graph.ore();
+            this.fuel = graph.fuel();
+            int size = graph.chemicals();
+            order = topologicalOrder(size);
+            demand = ThreadLocal.withInitial(() -> new long[size]);
+        }
+
+        /* Reverse post order of an iterative depth first search from fuel */
+        private int[] topologicalOrder(int size) {
+            int[] state = new int[size]; /* 0: unseen, 1: on the stack, 2: done */
+            int[] stack = new int[size];
+            int[] next = new int[size]; /* next reactant to visit, per chemical on the stack */
+            int[] postOrder = new int[size];
+            int done = 0;
+            int top = 0;
+
+            stack[top++] = fuel;
+            state[fuel] = 1;
+            next[fuel] = graph.reactantStart(fuel);
+            while (top > 0) {
+                int chemical = stack[top - 1];
+                if (next[chemical] < graph.reactantStart(chemical + 1)) {
+                    int reactant = graph.reactant(next[chemical]++);
+                    if (state[reactant] == 1) throw new IllegalArgumentException("Reactions form a cycle");
+                    if (state[reactant] == 0) {
+                        state[reactant] = 1;
+                        next[reactant] = graph.reactantStart(reactant);
+                        stack[top++] = reactant;
+                    }
+                } else {
+                    state[chemical] = 2;
+                    postOrder[done++] = chemical;
+                    top--;
+                }
+            }
+
+            int[] order = new int[done];
+            for (int i = 0; i < done; i++) {
+                order[i] = postOrder[done - 1 - i];
+            }
+            return order;
+        }
+
+        /* Ore needed for that much fuel, O(reactions). Throws ArithmeticException when it overflows a long */
+        long oreFor(long fuelAmount) {
+            long[] demand = this.demand.get();
+            for (int chemical : order) demand[chemical] = 0;
+            demand[fuel] = fuelAmount;
+
+            for (int chemical : order) {
+                if (chemical == ore) continue;
+                long needed = demand[chemical];
+                if (needed <= 0) continue;
+                long produced = graph.produced(chemical);
+                if (produced == 0) throw new IllegalStateException("No reaction produces chemical " + chemical);
+
+                long batches = needed / produced + (needed % produced == 0 ? 0 : 1);
+                for (int t = graph.reactantStart(chemical), end = graph.reactantStart(chemical + 1); t < end; t++) {
+                    int reactant = graph.reactant(t);
+                    demand[reactant] = Math.addExact(demand[reactant], Math.multiplyExact(batches, graph.amount(t)));
+                }
+            }
 
-        Reaction(Map<String, Long> reactants, String product, long productCoefficient) {
-            this.reactants = reactants;
-            this.product = product;
-            this.productCoefficient = productCoefficient;
+            return demand[ore];
         }
 
-        Reaction multiply(long by) {
-            HashMap<String, Long> reactants = new HashMap<>(this.reactants);
-            reactants.replaceAll((k,v) -> v * by);
-            return new Reaction(reactants, this.product, this.productCoefficient * by);
+        /*
+         * Most fuel that budget ore can make. Ore for fuel never decreases as fuel grows, so the answer is
+         * bracketed by doubling from the linear lower bound and then found by binary search. Amounts whose ore
+         * overflows a long count as unaffordable, so any budget up to Long.MAX_VALUE works. Safe to call from
+         * many threads at once.
+         */
+        long maxFuel(long budget) {
+            if (budget < 0) throw new IllegalArgumentException("Negative ore budget: " + budget);
+            if (!affordable(1, budget)) return 0;
+            long orePerFuel = oreFor(1);
+            if (orePerFuel == 0) throw new IllegalStateException("Fuel needs no ore");
+
+            /* ore for k fuel is at most k times the ore for one */
+            long low = budget / orePerFuel;
+            long high = low;
+            while (affordable(high, budget)) {
+                low = high;
+                if (high > Long.MAX_VALUE / 2) return maxFuelBelow(low, Long.MAX_VALUE, budget);
+                high *= 2;
+            }
+            return maxFuelBelow(low, high, budget);
         }
 
-        static Reaction parse(String input) {
-            String[] split = input.split("=>");
-            assert split.length == 2;
-            Map<String, Long> reactants = Arrays.stream(split[0].split(","))
-                    .map(String::trim)
-                    .map(s -> s.split(" "))
-                    .collect(Collectors.toMap(s -> s[1], s -> Long.parseLong(s[0])));
+        /* Answers for many budgets, solved in parallel */
+        long[] maxFuel(long[] budgets) {
+            long[] fuel = new long[budgets.length];
+            IntStream.range(0, budgets.length).parallel().forEach(i -> fuel[i] = maxFuel(budgets[i]));
+            return fuel;
+        }
 
-            String[] product = split[1].trim().split(" ");
-            return new Reaction(reactants, product[1], Long.parseLong(product[0]));
+        /* Largest affordable amount in [low, high), given low is affordable and high is not (or is the maximum) */
+        private long maxFuelBelow(long low, long high, long budget) {
+            if (high == Long.MAX_VALUE && affordable(high, budget)) return high;
+            while (high - low > 1) {
+                long middle = low + (high - low) / 2;
+                if (affordable(middle, budget)) {
+                    low = middle;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
         }
 
-        @Override
-        public String toString() {
-            return reactants.toString() + " => " + productCoefficient + " " + product;
+        private boolean affordable(long fuelAmount, long budget) {
+            try {
+                return oreFor(fuelAmount) <= budget;
+            } catch (ArithmeticException overflow) {
+                return false;
+            }
         }
     }
 }
@@ -4,8 +4,6 @@ import java.nio.file.Path;
 import java.util.*;
 import java.util.function.LongConsumer;
 import java.util.function.LongSupplier;
-import java.util.function.Predicate;
-import java.util.stream.Collectors;
 
 public class Day15 {
 
@@ -91,6 +89,7 @@ public class Day15 {
         private int x;
         private int y;
         private Pair<Integer, Integer> oxygenPosition;
+        private ExploredMap explored;
 
 
         public RepairDroidController(IntCodeMachine machine) {
@@ -216,61 +215,100 @@ public class Day15 {
         }
 
         public int shortestPathToOxygen() {
-            if (state != State.OXYGEN_FOUND) exploreGrid();
-            return shortestPathToOxygen(0, Pair.of(0, 0), Collections.emptySet());
+            ExploredMap map = explored();
+            int distance = map.distance(map.index(0, 0), map.index(oxygenPosition.first(), oxygenPosition.second()));
+            if (distance < 0) throw new IllegalStateException("Oxygen system is unreachable");
+            return distance;
         }
 
-        public int shortestPathToOxygen(int length, Pair<Integer, Integer> position, Set<Pair<Integer, Integer>> visited) {
-            if (grid.get(position) == ReplyStatus.OXYGEN) return length;
-            else {
-                HashSet<Pair<Integer, Integer>> newVisited = new HashSet<>(visited);
-                newVisited.add(position);
-                return nonWalledAdjacent(position.first(), position.second()).stream()
-                        .filter(Predicate.not(visited::contains))
-                        .mapToInt(p -> shortestPathToOxygen(length + 1, p, newVisited))
-                        .min()
-                        .orElse(Integer.MAX_VALUE);
-            }
+        public int oxygenSpreadTime() {
+            ExploredMap map = explored();
+            return map.farthest(map.index(oxygenPosition.first(), oxygenPosition.second()));
         }
 
-        private List<Pair<Integer, Integer>> nonWalledAdjacent(int x, int y) {
-            ArrayList<Pair<Integer, Integer>> adjacent = new ArrayList<>();
-
-            if (grid.get(Pair.of(x, y - 1)) != ReplyStatus.WALL)
-                adjacent.add(Pair.of(x, y - 1));
-
-            if (grid.get(Pair.of(x, y + 1)) != ReplyStatus.WALL)
-                adjacent.add(Pair.of(x, y + 1));
-
-            if (grid.get(Pair.of(x + 1, y)) != ReplyStatus.WALL)
-                adjacent.add(Pair.of(x + 1, y));
-
-            if (grid.get(Pair.of(x - 1, y)) != ReplyStatus.WALL)
-                adjacent.add(Pair.of(x - 1, y));
-
-            return adjacent;
+        private ExploredMap explored() {
+            if (explored == null) {
+                if (state != State.OXYGEN_FOUND) exploreGrid();
+                if (oxygenPosition == null) throw new IllegalStateException("Oxygen system not found");
+                explored = new ExploredMap(grid);
+            }
+            return explored;
         }
+    }
 
-        public int oxygenSpreadTime() {
-            if (state != State.OXYGEN_FOUND) exploreGrid();
+    /*
+     * Explored cells packed row by row into one flat array, surrounded by a border of walls so neighbours never
+     * fall outside it. Unexplored cells count as walls. Breadth first searches reuse one int queue and one
+     * distance array.
+     */
+    static class ExploredMap {
+        private final int minX;
+        private final int minY;
+        private final int width;
+        private final boolean[] open;
+        private final int[] steps;
+        private final int[] distance;
+        private final int[] queue;
+
+        ExploredMap(Map<Pair<Integer, Integer>, ReplyStatus> grid) {
+            int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+            for (Pair<Integer, Integer> position : grid.keySet()) {
+                minX = Math.min(minX, position.first());
+                maxX = Math.max(maxX, position.first());
+                minY = Math.min(minY, position.second());
+                maxY = Math.max(maxY, position.second());
+            }
+            this.minX = minX - 1;
+            this.minY = minY - 1;
+            this.width = maxX - minX + 3;
+            int size = width * (maxY - minY + 3);
+
+            open = new boolean[size];
+            grid.forEach((position, status) -> {
+                if (status != ReplyStatus.WALL) open[index(position.first(), position.second())] = true;
+            });
+            steps = new int[] {-width, width, -1, 1};
+            distance = new int[size];
+            queue = new int[size];
+        }
 
-            long empty = grid.values().stream().filter(replyStatus -> replyStatus != ReplyStatus.WALL).count();
-            List<Pair<Integer, Integer>> list = List.of(oxygenPosition);
-            HashSet<Pair<Integer, Integer>> visited = new HashSet<>();
+        int index(int x, int y) {
+            return (y - minY) * width + (x - minX);
+        }
 
-            int time = 0;
-            while (visited.size() < empty) {
+        /* Steps between two cells, -1 when there's no path */
+        int distance(int from, int to) {
+            search(from);
+            return distance[to];
+        }
 
-                list = list.stream()
-                        .filter(Predicate.not(visited::contains))
-                        .peek(visited::add)
-                        .flatMap(p -> nonWalledAdjacent(p.first(), p.second()).stream())
-                        .collect(Collectors.toList());
+        /* Steps to the open cell farthest from start */
+        int farthest(int start) {
+            return search(start);
+        }
 
-                time++;
+        /* Fills distance from start, -1 for cells it can't reach, and returns the largest one */
+        private int search(int start) {
+            Arrays.fill(distance, -1);
+            int head = 0;
+            int tail = 0;
+            distance[start] = 0;
+            queue[tail++] = start;
+
+            int farthest = 0;
+            while (head < tail) {
+                int cell = queue[head++];
+                int next = distance[cell] + 1;
+                for (int step : steps) {
+                    int neighbour = cell + step;
+                    if (open[neighbour] && distance[neighbour] < 0) {
+                        distance[neighbour] = next;
+                        farthest = next;
+                        queue[tail++] = neighbour;
+                    }
+                }
             }
-
-            return time - 1;
+            return farthest;
         }
     }
 }
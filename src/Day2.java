@@ -2,6 +2,9 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Arrays;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
 
 public class Day2 {
     public static void main(String[] args) throws IOException {
@@ -86,25 +89,173 @@ public class Day2 {
                     .mapToInt(Integer::parseInt)
                     .toArray();
 
-            for (int noun = 0; noun < 100; noun++)
-                for (int verb = 0; verb < 100; verb++) {
-                    if (copyAndRun(source, noun, verb) == PART2_PRODUCT) {
-                        return 100 * noun + verb;
+            return NounVerbSearch.search(source, 100, 100, PART2_PRODUCT)
+                    .map(p -> 100 * p.first() + p.second())
+                    .orElseThrow(() -> new RuntimeException("No answer was found."));
+        }
+    }
+
+    /* Finds (noun, verb) such that running the program yields the target in address 0 */
+    static class NounVerbSearch {
+
+        /* Tries the symbolic solver first, falls back to parallel brute force */
+        static Optional<Pair<Integer, Integer>> search(int[] source, int nouns, int verbs, long target) {
+            Optional<LinearForm> form = LinearForm.evaluate(source);
+            if (form.isPresent()) {
+                return solve(source, form.get(), nouns, verbs, target);
+            }
+            return parallelSearch(source, nouns, verbs, target);
+        }
+
+        /* Result is c + n * noun + v * verb, solve for verb for every noun. Candidates are confirmed by a concrete run */
+        static Optional<Pair<Integer, Integer>> solve(int[] source, LinearForm form, int nouns, int verbs, long target) {
+            int[] memory = new int[source.length];
+            for (int noun = 0; noun < nouns; noun++) {
+                long remainder = target - form.constant - form.noun * noun;
+                int verb;
+                if (form.verb == 0) {
+                    if (remainder != 0) continue;
+                    verb = firstMatchingVerb(source, memory, noun, verbs, target);
+                    if (verb < 0) continue;
+                } else {
+                    if (remainder % form.verb != 0) continue;
+                    long candidate = remainder / form.verb;
+                    if (candidate < 0 || candidate >= verbs) continue;
+                    verb = (int) candidate;
+                    if (!matches(source, memory, noun, verb, target)) continue;
+                }
+                return Optional.of(Pair.of(noun, verb));
+            }
+            return Optional.empty();
+        }
+
+        private static int firstMatchingVerb(int[] source, int[] memory, int noun, int verbs, long target) {
+            for (int verb = 0; verb < verbs; verb++) {
+                if (matches(source, memory, noun, verb, target)) return verb;
+            }
+            return -1;
+        }
+
+        /* Splits the candidate space by noun, workers stop as soon as a smaller match is known */
+        static Optional<Pair<Integer, Integer>> parallelSearch(int[] source, int nouns, int verbs, long target) {
+            AtomicLong found = new AtomicLong(Long.MAX_VALUE); /* noun * verbs + verb of the first match */
+
+            IntStream.range(0, nouns).parallel().forEach(noun -> {
+                int[] memory = new int[source.length];
+                for (int verb = 0; verb < verbs; verb++) {
+                    long index = (long) noun * verbs + verb;
+                    if (index >= found.get()) return;
+                    if (matches(source, memory, noun, verb, target)) {
+                        found.accumulateAndGet(index, Math::min);
+                        return;
                     }
                 }
+            });
+
+            long index = found.get();
+            return index == Long.MAX_VALUE
+                    ? Optional.empty()
+                    : Optional.of(Pair.of((int) (index / verbs), (int) (index % verbs)));
+        }
+
+        /* Reuses memory as scratch space, programs that read or write out of bounds don't match */
+        private static boolean matches(int[] source, int[] memory, int noun, int verb, long target) {
+            System.arraycopy(source, 0, memory, 0, source.length);
+            memory[1] = noun;
+            memory[2] = verb;
 
-            throw new RuntimeException("No answer was found.");
+            try {
+                Part1.runIntCode(memory);
+            } catch (ArrayIndexOutOfBoundsException | IllegalArgumentException e) {
+                return false;
+            }
+            return memory[0] == target;
+        }
+    }
+
+    /* Address 0 after running the program, as constant + noun * n + verb * v */
+    static class LinearForm {
+        final long constant;
+        final long noun;
+        final long verb;
+
+        LinearForm(long constant, long noun, long verb) {
+            this.constant = constant;
+            this.noun = noun;
+            this.verb = verb;
         }
 
-        /* Copies memory, updates values in index 0 and 1 with i and j */
-        static long copyAndRun(int[] memory, int i, int j) {
-            int[] copy = Arrays.copyOf(memory, memory.length);
+        /*
+         * Runs the program once with noun and verb as symbols. Values that are not linear, or are loaded
+         * through a symbolic address, are marked unknown; that is fine as long as they are overwritten before
+         * being used as an opcode, an address or the result.
+         */
+        static Optional<LinearForm> evaluate(int[] source) {
+            int size = source.length;
+            long[] constant = new long[size];
+            long[] noun = new long[size];
+            long[] verb = new long[size];
+            boolean[] unknown = new boolean[size];
+
+            for (int i = 0; i < size; i++) constant[i] = source[i];
+            if (size < 3) return Optional.empty();
+            constant[1] = 0;
+            noun[1] = 1;
+            constant[2] = 0;
+            verb[2] = 1;
 
-            copy[1] = i;
-            copy[2] = j;
+            int cursor = 0;
+            while (true) {
+                int instruction = concrete(constant, noun, verb, unknown, cursor);
+                if (instruction == Integer.MIN_VALUE) return Optional.empty();
+                if (instruction == OpCode.HALT.constant) break;
+                if (instruction != OpCode.ADD.constant && instruction != OpCode.MULTIPLY.constant) {
+                    return Optional.empty();
+                }
+
+                int dst = concrete(constant, noun, verb, unknown, cursor + 3);
+                if (dst < 0 || dst >= size) return Optional.empty();
+
+                int a = concrete(constant, noun, verb, unknown, cursor + 1);
+                int b = concrete(constant, noun, verb, unknown, cursor + 2);
+                if (a < 0 || a >= size || b < 0 || b >= size) {
+                    unknown[dst] = true;
+                } else if (unknown[a] || unknown[b]) {
+                    unknown[dst] = true;
+                } else if (instruction == OpCode.ADD.constant) {
+                    constant[dst] = constant[a] + constant[b];
+                    noun[dst] = noun[a] + noun[b];
+                    verb[dst] = verb[a] + verb[b];
+                    unknown[dst] = false;
+                } else if (isConstant(noun, verb, a) || isConstant(noun, verb, b)) {
+                    int scalar = isConstant(noun, verb, a) ? a : b;
+                    int other = scalar == a ? b : a;
+                    long factor = constant[scalar];
+                    constant[dst] = factor * constant[other];
+                    noun[dst] = factor * noun[other];
+                    verb[dst] = factor * verb[other];
+                    unknown[dst] = false;
+                } else {
+                    unknown[dst] = true; /* noun * verb or a square */
+                }
+
+                cursor += OpCode.ADD.size;
+            }
+
+            return unknown[0]
+                    ? Optional.empty()
+                    : Optional.of(new LinearForm(constant[0], noun[0], verb[0]));
+        }
+
+        private static boolean isConstant(long[] noun, long[] verb, int address) {
+            return noun[address] == 0 && verb[address] == 0;
+        }
 
-            Part1.runIntCode(copy);
-            return copy[0];
+        /* Value at address if it doesn't depend on noun or verb, Integer.MIN_VALUE otherwise */
+        private static int concrete(long[] constant, long[] noun, long[] verb, boolean[] unknown, int address) {
+            if (address < 0 || address >= constant.length) return Integer.MIN_VALUE;
+            if (unknown[address] || noun[address] != 0 || verb[address] != 0) return Integer.MIN_VALUE;
+            return (int) constant[address];
         }
     }
 }
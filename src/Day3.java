@@ -2,11 +2,17 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
 import java.util.function.IntUnaryOperator;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 public class Day3 {
     public static void main(String[] args) throws IOException {
@@ -23,6 +29,27 @@ public class Day3 {
                 .collect(Collectors.toList());
     }
 
+    /* One wire per non-blank line */
+    static List<List<Point>> parseTraces(String input) {
+        return input
+                .lines()
+                .map(String::trim)
+                .filter(line -> !line.isEmpty())
+                .map(Day3::parseTrace)
+                .collect(Collectors.toList());
+    }
+
+    static List<List<FlatVector>> tracesToVectors(List<List<Point>> traces) {
+        return traces
+                .stream()
+                .map(Day3::pointsToVectors)
+                .collect(Collectors.toList());
+    }
+
+    static List<List<FlatVector>> readWires() throws IOException {
+        return tracesToVectors(parseTraces(Files.readString(INPUT_PATH)));
+    }
+
     static List<Point> parseTrace(String input) {
         ArrayList<Point> points = new ArrayList<>();
         points.add(Point.ORIGIN);
@@ -217,50 +244,281 @@ public class Day3 {
         }
     }
 
+    /*
+     * Sweep line over x. Horizontal segments are active strictly between their ends and kept ordered by y,
+     * every vertical segment then asks for the active horizontals strictly between its ends.
+     */
+    static class SweepLine {
+        /* Event order at the same x: horizontals leave, verticals query, then horizontals enter */
+        private static final int REMOVE = 0;
+        private static final int QUERY = 1;
+        private static final int INSERT = 2;
+        private static final int MAX_SEGMENTS = 1 << 30;
+
+        interface CrossingConsumer {
+            void accept(int x, int y, int wireA, int wireB);
+        }
+
+        /* Segments of all wires, flattened. x1 <= x2 and y1 <= y2 */
+        private final int[] wire;
+        private final int[] x1, y1, x2, y2;
+        private final int[] headX, headY;
+        /* Steps taken along the wire before reaching the head of the segment */
+        private final long[] steps;
+        private final int wires;
+        private final long[] events;
+
+        SweepLine(List<List<FlatVector>> wires) {
+            int size = wires.stream().mapToInt(List::size).sum();
+            if (size >= MAX_SEGMENTS) throw new IllegalArgumentException("Too many segments: " + size);
+
+            wire = new int[size];
+            x1 = new int[size];
+            y1 = new int[size];
+            x2 = new int[size];
+            y2 = new int[size];
+            headX = new int[size];
+            headY = new int[size];
+            steps = new long[size];
+            this.wires = wires.size();
+
+            int s = 0;
+            int eventCount = 0;
+            for (int w = 0; w < wires.size(); w++) {
+                long walked = 0;
+                for (FlatVector vector : wires.get(w)) {
+                    Point head = vector.head();
+                    Point tail = vector.tail();
+                    wire[s] = w;
+                    x1[s] = Math.min(head.x, tail.x);
+                    x2[s] = Math.max(head.x, tail.x);
+                    y1[s] = Math.min(head.y, tail.y);
+                    y2[s] = Math.max(head.y, tail.y);
+                    headX[s] = head.x;
+                    headY[s] = head.y;
+                    steps[s] = walked;
+                    walked += vector.length();
+                    eventCount += isHorizontal(s) ? 2 : 1;
+                    s++;
+                }
+            }
+
+            events = new long[eventCount];
+            int e = 0;
+            for (s = 0; s < size; s++) {
+                if (isHorizontal(s)) {
+                    events[e++] = event(x1[s], INSERT, s);
+                    events[e++] = event(x2[s], REMOVE, s);
+                } else {
+                    events[e++] = event(x1[s], QUERY, s);
+                }
+            }
+            Arrays.sort(events);
+        }
+
+        private boolean isHorizontal(int segment) {
+            return y1[segment] == y2[segment] && x1[segment] != x2[segment];
+        }
+
+        private static long event(int x, int type, int segment) {
+            return (long) x << 32 | (long) type << 30 | segment;
+        }
+
+        private static long activeKey(int y, int segment) {
+            return (long) y << 32 | segment;
+        }
+
+        /* Reports every crossing between segments of different wires, O((n + k) log n) */
+        void forEachCrossing(CrossingConsumer consumer) {
+            sweep(0, events.length, consumer);
+        }
+
+        /* Sweeps events [from, to), starting with the horizontals active before events[from] */
+        private void sweep(int from, int to, CrossingConsumer consumer) {
+            TreeSet<Long> active = new TreeSet<>();
+            if (from < to) {
+                int start = (int) (events[from] >> 32);
+                for (int segment = 0; segment < wire.length; segment++) {
+                    if (isHorizontal(segment) && x1[segment] < start && x2[segment] >= start) {
+                        active.add(activeKey(y1[segment], segment));
+                    }
+                }
+            }
+
+            for (int e = from; e < to; e++) {
+                long event = events[e];
+                int x = (int) (event >> 32);
+                int type = (int) (event >>> 30) & 0b11;
+                int segment = (int) event & (MAX_SEGMENTS - 1);
+
+                switch (type) {
+                    case INSERT:
+                        active.add(activeKey(y1[segment], segment));
+                        break;
+                    case REMOVE:
+                        active.remove(activeKey(y1[segment], segment));
+                        break;
+                    case QUERY:
+                        if (y2[segment] - y1[segment] < 2) break;
+                        for (long key : active.subSet(activeKey(y1[segment] + 1, 0), activeKey(y2[segment], 0))) {
+                            int other = (int) key;
+                            if (wire[other] == wire[segment]) continue;
+                            consumer.accept(x, y1[other], wire[segment], wire[other]);
+                        }
+                        break;
+                }
+            }
+        }
+
+        /* Splits the events into about `count` slabs of x, never splitting events at the same x */
+        private int[] slabBounds(int count) {
+            int[] bounds = new int[count + 1];
+            int size = 1;
+            for (int i = 1; i < count; i++) {
+                int bound = Math.max(bounds[size - 1], (int) ((long) events.length * i / count));
+                while (bound > 0 && bound < events.length && events[bound] >> 32 == events[bound - 1] >> 32) bound++;
+                if (bound > bounds[size - 1] && bound < events.length) bounds[size++] = bound;
+            }
+            bounds[size++] = events.length;
+            return Arrays.copyOf(bounds, size);
+        }
+
+        /* Sweeps slabs of x in parallel over the shared segment index, each slab into its own accumulator */
+        private <A> Stream<A> sweepSlabs(Supplier<A> supplier, Function<A, CrossingConsumer> consumer) {
+            int[] bounds = slabBounds(ForkJoinPool.getCommonPoolParallelism() * 4);
+            return IntStream
+                    .range(0, bounds.length - 1)
+                    .parallel()
+                    .mapToObj(i -> {
+                        A accumulator = supplier.get();
+                        sweep(bounds[i], bounds[i + 1], consumer.apply(accumulator));
+                        return accumulator;
+                    });
+        }
+
+        /*
+         * A wire's steps to a crossing count its first visit of that point, which may be on an earlier segment
+         * than the one crossing, e.g. one running along the other wire. So after the sweep every segment looks
+         * up the crossing points lying on it, keeping the fewest steps per wire and point.
+         */
+        private long minimalDelay(Crossings crossings) {
+            long[] byRow = new long[crossings.size];
+            long[] byColumn = new long[crossings.size];
+            for (int c = 0; c < crossings.size; c++) {
+                byRow[c] = pack(crossings.y[c], crossings.x[c]);
+                byColumn[c] = pack(crossings.x[c], crossings.y[c]);
+            }
+            byRow = Arrays.stream(byRow).sorted().distinct().toArray();
+            byColumn = Arrays.stream(byColumn).sorted().distinct().toArray();
+
+            /* fewest steps for wire w to reach point p, the p-th of byRow */
+            long[] firstVisit = new long[byRow.length * wires];
+            Arrays.fill(firstVisit, Long.MAX_VALUE);
+            for (int segment = 0; segment < wire.length; segment++) {
+                boolean horizontal = isHorizontal(segment);
+                long[] points = horizontal ? byRow : byColumn;
+                long from = horizontal ? pack(y1[segment], x1[segment]) : pack(x1[segment], y1[segment]);
+                long to = horizontal ? pack(y1[segment], x2[segment]) : pack(x1[segment], y2[segment]);
+
+                for (int i = lowerBound(points, from); i < points.length && points[i] <= to; i++) {
+                    int a = (int) (points[i] >> 32);
+                    int b = (int) points[i] ^ Integer.MIN_VALUE;
+                    int x = horizontal ? b : a;
+                    int y = horizontal ? a : b;
+                    int p = horizontal ? i : lowerBound(byRow, pack(y, x));
+                    int index = p * wires + wire[segment];
+                    firstVisit[index] = Math.min(firstVisit[index], stepsTo(segment, x, y));
+                }
+            }
+
+            long delay = Long.MAX_VALUE;
+            for (int c = 0; c < crossings.size; c++) {
+                int p = lowerBound(byRow, pack(crossings.y[c], crossings.x[c]));
+                delay = Math.min(delay, firstVisit[p * wires + crossings.wireA[c]] + firstVisit[p * wires + crossings.wireB[c]]);
+            }
+            return delay;
+        }
+
+        /* Orders by a, then b, as signed ints */
+        private static long pack(int a, int b) {
+            return (long) a << 32 | ((b ^ Integer.MIN_VALUE) & 0xFFFFFFFFL);
+        }
+
+        /* First index whose key is at least key */
+        private static int lowerBound(long[] keys, long key) {
+            int index = Arrays.binarySearch(keys, key);
+            if (index >= 0) return index;
+            return -index - 1;
+        }
+
+        private long stepsTo(int segment, int x, int y) {
+            return steps[segment] + Math.abs(x - headX[segment]) + Math.abs(y - headY[segment]);
+        }
+
+        /* Manhattan distance from the origin to the closest crossing, or -1 */
+        long closestCrossing() {
+            long closest = sweepSlabs(() -> new long[]{Long.MAX_VALUE}, min -> (x, y, wireA, wireB) ->
+                    min[0] = Math.min(min[0], (long) Math.abs(x) + Math.abs(y)))
+                    .mapToLong(min -> min[0])
+                    .min()
+                    .orElse(Long.MAX_VALUE);
+            return closest == Long.MAX_VALUE ? -1 : closest;
+        }
+
+        /* Fewest combined steps two wires take to reach a crossing, or -1 */
+        long minimalSignalDelay() {
+            Crossings crossings = sweepSlabs(Crossings::new, slab -> slab::add)
+                    .reduce(Crossings::addAll)
+                    .orElseGet(Crossings::new);
+            long delay = minimalDelay(crossings);
+            return delay == Long.MAX_VALUE ? -1 : delay;
+        }
+    }
+
     static class Part1 {
-        @SuppressWarnings("OptionalGetWithoutIsPresent")
         static long answer() throws IOException {
-            String[] traces = Files.readString(INPUT_PATH).split("\\n");
-            List<FlatVector> cable1 = pointsToVectors(parseTrace(traces[0]));
-            List<FlatVector> cable2 = pointsToVectors(parseTrace(traces[1]));
-
-            return cable1.stream()
-                    .flatMap(a -> cable2.stream()
-                            .flatMap(b -> a.intercepts(b).stream()))
-                    .mapToLong(p -> p.manhattanDistance(Point.ORIGIN))
-                    .min()
-                    .getAsLong();
+            return new SweepLine(readWires()).closestCrossing();
         }
     }
 
     static class Part2 {
-        @SuppressWarnings("OptionalGetWithoutIsPresent")
         static long answer() throws IOException {
-            String[] traces = Files.readString(INPUT_PATH).split("\\n");
-            List<FlatVector> cable1 = pointsToVectors(parseTrace(traces[0]));
-            List<FlatVector> cable2 = pointsToVectors(parseTrace(traces[1]));
-
-            return cable1.stream()
-                    .flatMap(a -> cable2.stream()
-                            .flatMap(b -> a.intercepts(b).stream()))
-                    .mapToLong(p -> lengthToPoint(cable1, p) + lengthToPoint(cable2, p))
-                    .min()
-                    .getAsLong();
+            return new SweepLine(readWires()).minimalSignalDelay();
         }
+    }
 
-        static long lengthToPoint(List<FlatVector> vectors, Point point) {
-            long length = 0;
+    /* Crossings reported by a sweep, column by column */
+    private static class Crossings {
+        private int size;
+        private int[] x = new int[16];
+        private int[] y = new int[16];
+        private int[] wireA = new int[16];
+        private int[] wireB = new int[16];
+
+        void add(int x, int y, int wireA, int wireB) {
+            if (size == this.x.length) grow(size * 2);
+            this.x[size] = x;
+            this.y[size] = y;
+            this.wireA[size] = wireA;
+            this.wireB[size] = wireB;
+            size++;
+        }
 
-            for (FlatVector vector : vectors) {
-                if (vector.pointInside(point)) {
-                    length += FlatVector.newFlatVector(vector.head(), point).length();
-                    break;
-                } else {
-                    length += vector.length();
-                }
-            }
+        Crossings addAll(Crossings that) {
+            if (size + that.size > x.length) grow(Math.max(x.length * 2, size + that.size));
+            System.arraycopy(that.x, 0, x, size, that.size);
+            System.arraycopy(that.y, 0, y, size, that.size);
+            System.arraycopy(that.wireA, 0, wireA, size, that.size);
+            System.arraycopy(that.wireB, 0, wireB, size, that.size);
+            size += that.size;
+            return this;
+        }
 
-            return length;
+        private void grow(int capacity) {
+            x = Arrays.copyOf(x, capacity);
+            y = Arrays.copyOf(y, capacity);
+            wireA = Arrays.copyOf(wireA, capacity);
+            wireB = Arrays.copyOf(wireB, capacity);
         }
     }
 }
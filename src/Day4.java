@@ -1,6 +1,4 @@
-import java.util.ArrayList;
-import java.util.List;
-import java.util.stream.IntStream;
+import java.util.Arrays;
 
 public class Day4 {
     public static void main(String[] args) {
@@ -11,57 +9,224 @@ public class Day4 {
     static final int START = 108457;
     static final int END = 562041;
 
-    /* a non increasing number from right to left */
-    static boolean nonIncreasing(int i) {
-        int last = 9;
+    static class Part1 {
+        static final PasswordRule RULE = PasswordRule.nonDecreasing().withGroupAtLeast(2);
 
-        for (int current = i % 10; current <= last && i > 0; i /= 10, current = i % 10) {
-            last = current;
+        static long answer() {
+            return new DigitCounter(RULE).count(START, END);
         }
 
-        return i == 0;
+        static boolean match(int password) {
+            return RULE.test(password);
+        }
     }
 
-    static List<Pair<Integer, Integer>> groupAdjacent(int i) {
-        List<Pair<Integer, Integer>> list = new ArrayList<>();
+    static class Part2 {
+        static final PasswordRule RULE = PasswordRule.nonDecreasing().withGroupExactly(2);
 
-        int last = i % 10;
-        int c = 1;
+        static long answer() {
+            return new DigitCounter(RULE).count(START, END);
+        }
 
-        while (i > 0) {
-            i /= 10;
-            int d = i % 10;
-            if (last == d) {
-                c++;
-            } else {
-                list.add(Pair.of(last, c));
-                c = 1;
+        static boolean match(int password) {
+            return RULE.test(password);
+        }
+    }
+
+    /*
+     * Constraints on the decimal digits of a positive number: optionally never decreasing from left to right,
+     * none of the forbidden digits, and at least one group of adjacent equal digits whose length is within
+     * [minGroup, maxGroup]. Rules are immutable, every `with` returns a new one.
+     */
+    static class PasswordRule {
+        static final PasswordRule ANY = new PasswordRule(false, 1, Integer.MAX_VALUE, 0);
+
+        private final boolean nonDecreasing;
+        private final int minGroup;
+        private final int maxGroup;
+        private final int forbiddenDigits; /* bit d is set when digit d is forbidden */
+
+        private PasswordRule(boolean nonDecreasing, int minGroup, int maxGroup, int forbiddenDigits) {
+            if (minGroup < 1 || maxGroup < minGroup) {
+                throw new IllegalArgumentException("Invalid group length range: [" + minGroup + ", " + maxGroup + "]");
             }
-            last = d;
+            this.nonDecreasing = nonDecreasing;
+            this.minGroup = minGroup;
+            this.maxGroup = maxGroup;
+            this.forbiddenDigits = forbiddenDigits;
         }
 
-        return list;
-    }
+        static PasswordRule nonDecreasing() {
+            return ANY.withNonDecreasing();
+        }
 
-    static class Part1 {
-        static long answer() {
-            return IntStream.range(START, END).filter(Part1::match).count();
+        PasswordRule withNonDecreasing() {
+            return new PasswordRule(true, minGroup, maxGroup, forbiddenDigits);
         }
 
-        static boolean match(int password) {
-            return nonIncreasing(password) &&
-                    groupAdjacent(password).stream().anyMatch(p -> p.second() >= 2);
+        PasswordRule withGroupAtLeast(int length) {
+            return new PasswordRule(nonDecreasing, length, Integer.MAX_VALUE, forbiddenDigits);
+        }
+
+        PasswordRule withGroupAtMost(int length) {
+            return new PasswordRule(nonDecreasing, 1, length, forbiddenDigits);
+        }
+
+        PasswordRule withGroupExactly(int length) {
+            return new PasswordRule(nonDecreasing, length, length, forbiddenDigits);
+        }
+
+        PasswordRule withGroupBetween(int min, int max) {
+            return new PasswordRule(nonDecreasing, min, max, forbiddenDigits);
+        }
+
+        PasswordRule withForbidden(int... digits) {
+            int mask = forbiddenDigits;
+            for (int digit : digits) {
+                if (digit < 0 || digit > 9) throw new IllegalArgumentException("Not a digit: " + digit);
+                mask |= 1 << digit;
+            }
+            return new PasswordRule(nonDecreasing, minGroup, maxGroup, mask);
+        }
+
+        boolean isNonDecreasing() {
+            return nonDecreasing;
+        }
+
+        boolean isForbidden(int digit) {
+            return (forbiddenDigits >> digit & 1) != 0;
+        }
+
+        boolean isGroupLength(int length) {
+            return length >= minGroup && length <= maxGroup;
+        }
+
+        boolean test(int password) {
+            return test((long) password);
+        }
+
+        /* Single pass over the digits from right to left */
+        boolean test(long password) {
+            if (password <= 0) return false;
+
+            int last = 10;
+            int run = 0;
+            boolean grouped = false;
+            for (; password > 0; password /= 10) {
+                int digit = (int) (password % 10);
+                if (isForbidden(digit)) return false;
+                if (digit == last) {
+                    run++;
+                    continue;
+                }
+                if (nonDecreasing && digit > last) return false;
+                grouped = grouped || isGroupLength(run);
+                last = digit;
+                run = 1;
+            }
+
+            return grouped || isGroupLength(run);
+        }
+
+        /* results[i] = test(passwords[i]) */
+        void testAll(long[] passwords, boolean[] results) {
+            if (results.length < passwords.length) throw new IllegalArgumentException("results is too short");
+            for (int i = 0; i < passwords.length; i++) {
+                results[i] = test(passwords[i]);
+            }
+        }
+
+        long countMatching(int[] passwords) {
+            return Arrays.stream(passwords).parallel().filter(this::test).count();
+        }
+
+        long countMatching(long[] passwords) {
+            return Arrays.stream(passwords).parallel().filter(this::test).count();
         }
     }
 
-    static class Part2 {
-        static long answer() {
-            return IntStream.range(START, END).filter(Part2::match).count();
+    /*
+     * Counts numbers matching a PasswordRule. Works digit by digit over the bound, so the cost depends on
+     * the number of digits, not on the width of the range.
+     */
+    static class DigitCounter {
+        private static final int MAX_DIGITS = 19;
+
+        private final PasswordRule rule;
+        /* completions[remaining][last][run][satisfied], -1 when not yet computed */
+        private final long[][][][] completions = new long[MAX_DIGITS + 1][10][MAX_DIGITS + 1][2];
+
+        DigitCounter(PasswordRule rule) {
+            this.rule = rule;
+            for (long[][][] byLast : completions)
+                for (long[][] byRun : byLast)
+                    for (long[] bySatisfied : byRun)
+                        Arrays.fill(bySatisfied, -1);
         }
 
-        static boolean match(int password) {
-            return nonIncreasing(password) &&
-                    groupAdjacent(password).stream().anyMatch(p -> p.second() == 2);
+        /* Matching numbers in [from, to) */
+        long count(long from, long to) {
+            if (to <= from) return 0;
+            return countBelow(to) - countBelow(Math.max(from, 0));
+        }
+
+        /* Matching numbers in [0, bound) */
+        long countBelow(long bound) {
+            if (bound <= 0) return 0;
+            int[] digits = Long.toString(bound).chars().map(c -> c - '0').toArray();
+            int length = digits.length;
+            long count = 0;
+
+            for (int shorter = 1; shorter < length; shorter++) {
+                for (int first = 1; first <= 9; first++) {
+                    if (!rule.isForbidden(first)) count += complete(shorter - 1, first, 1, false);
+                }
+            }
+
+            int last = 0;
+            int run = 0;
+            boolean satisfied = false;
+            for (int i = 0; i < length; i++) {
+                int lowest = i == 0 ? 1 : rule.isNonDecreasing() ? last : 0;
+                for (int d = lowest; d < digits[i]; d++) {
+                    if (rule.isForbidden(d)) continue;
+                    count += i > 0 && d == last
+                            ? complete(length - i - 1, d, run + 1, satisfied)
+                            : complete(length - i - 1, d, 1, satisfied || run > 0 && rule.isGroupLength(run));
+                }
+                if (digits[i] < lowest || rule.isForbidden(digits[i])) return count;
+
+                if (i > 0 && digits[i] == last) {
+                    run++;
+                } else {
+                    satisfied = satisfied || run > 0 && rule.isGroupLength(run);
+                    last = digits[i];
+                    run = 1;
+                }
+            }
+
+            return count; /* bound itself is excluded */
+        }
+
+        /* Ways to append `remaining` allowed digits, given the current group of `run` last digits */
+        private long complete(int remaining, int last, int run, boolean satisfied) {
+            int s = satisfied ? 1 : 0;
+            long cached = completions[remaining][last][run][s];
+            if (cached >= 0) return cached;
+
+            long count;
+            if (remaining == 0) {
+                count = satisfied || rule.isGroupLength(run) ? 1 : 0;
+            } else {
+                count = complete(remaining - 1, last, run + 1, satisfied);
+                boolean closed = satisfied || rule.isGroupLength(run);
+                for (int d = rule.isNonDecreasing() ? last + 1 : 0; d <= 9; d++) {
+                    if (d != last && !rule.isForbidden(d)) count += complete(remaining - 1, d, 1, closed);
+                }
+            }
+
+            completions[remaining][last][run][s] = count;
+            return count;
         }
     }
 }
@@ -1,8 +1,9 @@
+import java.io.BufferedReader;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 public class Day6 {
     public static void main(String[] args) throws IOException {
@@ -12,69 +13,211 @@ public class Day6 {
 
     static final Path INPUT_PATH = Path.of(".", "input6.txt");
 
-    static Map<String, Set<String>> readTree() throws IOException {
-        List<String> input = Files.readAllLines(INPUT_PATH);
-        return input
-                .stream()
-                .map(s -> s.split("\\)"))
-                .collect(Collectors.groupingBy(pair -> pair[0],
-                        Collectors.mapping(pair -> pair[1],
-                                Collectors.toSet())));
-    }
-
     static class Part1 {
         static long answer() throws IOException {
-            return lengthOfAllPaths(readTree(), "COM", 0);
-        }
-
-        private static long lengthOfAllPaths(Map<String, Set<String>> tree, String node, int stepsSoFar) {
-            return stepsSoFar + tree.getOrDefault(node, Collections.emptySet())
-                    .stream()
-                    .mapToLong(n -> lengthOfAllPaths(tree, n, stepsSoFar + 1))
-                    .sum();
+            return OrbitTree.read(INPUT_PATH).totalDepth("COM");
         }
     }
 
     static class Part2 {
         static long answer() throws IOException {
-            Map<String, Set<String>> tree = readTree();
-            Map<String, String> inverted = invert(tree);
-            return lengthToMostSpecificAncestor(inverted, "YOU", "SAN");
+            OrbitTree tree = OrbitTree.read(INPUT_PATH);
+            return new AncestorIndex(tree).transfers(tree.id("YOU"), tree.id("SAN"));
+        }
+    }
+
+    /*
+     * Bodies are interned to ids in order of first appearance. The parent of every body is kept in an int[]
+     * and children in CSR form: children of `id` are children[childStart[id] .. childStart[id + 1]).
+     */
+    static class OrbitTree {
+        private final Map<String, Integer> ids;
+        final int[] parent;
+        final int[] childStart;
+        final int[] children;
+
+        private OrbitTree(Map<String, Integer> ids, int[] parent) {
+            this.ids = ids;
+            this.parent = parent;
+
+            int size = parent.length;
+            childStart = new int[size + 1];
+            for (int p : parent) {
+                if (p >= 0) childStart[p + 1]++;
+            }
+            for (int i = 0; i < size; i++) {
+                childStart[i + 1] += childStart[i];
+            }
+
+            children = new int[childStart[size]];
+            int[] next = Arrays.copyOf(childStart, size);
+            for (int id = 0; id < size; id++) {
+                if (parent[id] >= 0) children[next[parent[id]]++] = id;
+            }
         }
 
+        /* Reads lines of the form CENTER)SATELLITE, a body orbiting more than once keeps its first center */
+        static OrbitTree read(Path path) throws IOException {
+            Map<String, Integer> ids = new HashMap<>();
+            int[] parent = new int[16];
+            Arrays.fill(parent, -1);
 
-        static <T> Map<T, T> invert(Map<T, Set<T>> tree) {
-            HashMap<T, T> inverted = new HashMap<>();
-            for (Map.Entry<T, Set<T>> entry : tree.entrySet()) {
-                for (T key : entry.getValue()) {
-                    inverted.putIfAbsent(key, entry.getKey());
+            try (BufferedReader reader = Files.newBufferedReader(path)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    int separator = line.indexOf(')');
+                    if (separator < 0) continue;
+
+                    int center = intern(ids, line.substring(0, separator).trim());
+                    int satellite = intern(ids, line.substring(separator + 1).trim());
+                    if (ids.size() > parent.length) {
+                        int oldLength = parent.length;
+                        parent = Arrays.copyOf(parent, Math.max(ids.size(), oldLength * 2));
+                        Arrays.fill(parent, oldLength, parent.length, -1);
+                    }
+                    if (parent[satellite] < 0) parent[satellite] = center;
                 }
             }
-            return inverted;
+
+            return new OrbitTree(ids, Arrays.copyOf(parent, ids.size()));
+        }
+
+        private static int intern(Map<String, Integer> ids, String name) {
+            Integer id = ids.get(name);
+            if (id != null) return id;
+            ids.put(name, ids.size());
+            return ids.size() - 1;
         }
 
-        static int lengthToMostSpecificAncestor(Map<String, String> tree, String v1, String v2) {
-            var v1Path = new ArrayList<String>();
-            var v2Path = new ArrayList<String>();
+        int size() {
+            return parent.length;
+        }
 
-            v1Path.add(tree.get(v1));
-            v2Path.add(tree.get(v2));
+        int id(String name) {
+            Integer id = ids.get(name);
+            if (id == null) throw new IllegalArgumentException("Unknown body: " + name);
+            return id;
+        }
 
-            String v1Last = v1Path.get(v1Path.size() - 1);
-            String v2Last = v2Path.get(v2Path.size() - 1);
-            while (!v1Path.contains(v2Last) && !v2Path.contains(v1Last)) {
-                v1Path.add(tree.get(v1Last));
-                v2Path.add(tree.get(v2Last));
+        /* Sum of the depths of every body below root, root being at depth 0. Breadth first, no recursion */
+        long totalDepth(String root) {
+            int[] queue = new int[size()];
+            int[] depth = new int[size()];
+            int head = 0;
+            int tail = 0;
+            long total = 0;
 
-                v2Last = v2Path.get(v2Path.size() - 1);
-                v1Last = v1Path.get(v1Path.size() - 1);
+            queue[tail++] = id(root);
+            while (head < tail) {
+                int body = queue[head++];
+                total += depth[body];
+                for (int c = childStart[body]; c < childStart[body + 1]; c++) {
+                    int child = children[c];
+                    depth[child] = depth[body] + 1;
+                    queue[tail++] = child;
+                }
             }
 
-            if (v1Path.contains(v2Last)) {
-                return v1Path.indexOf(v2Last) + v2Path.size() - 1;
-            } else {
-                return v2Path.indexOf(v1Last) + v1Path.size() - 1;
+            return total;
+        }
+    }
+
+    /*
+     * Lowest common ancestor by binary lifting: up[k][id] is the ancestor 2^k levels above id, roots being
+     * their own ancestors. Only as many levels as the deepest body needs are kept, queries are O(log depth).
+     */
+    static class AncestorIndex {
+        private final OrbitTree tree;
+        private final int[] depth;
+        private final int[] root;
+        private final int[][] up;
+
+        AncestorIndex(OrbitTree tree) {
+            this.tree = tree;
+            int size = tree.size();
+            depth = new int[size];
+            root = new int[size];
+
+            int[] queue = new int[size];
+            int tail = 0;
+            for (int id = 0; id < size; id++) {
+                if (tree.parent[id] < 0) {
+                    root[id] = id;
+                    queue[tail++] = id;
+                }
+            }
+            int maxDepth = 0;
+            for (int head = 0; head < tail; head++) {
+                int body = queue[head];
+                maxDepth = Math.max(maxDepth, depth[body]);
+                for (int c = tree.childStart[body]; c < tree.childStart[body + 1]; c++) {
+                    int child = tree.children[c];
+                    depth[child] = depth[body] + 1;
+                    root[child] = root[body];
+                    queue[tail++] = child;
+                }
+            }
+
+            int levels = 32 - Integer.numberOfLeadingZeros(Math.max(maxDepth, 1));
+            up = new int[levels][];
+            up[0] = new int[size];
+            for (int id = 0; id < size; id++) {
+                up[0][id] = tree.parent[id] < 0 ? id : tree.parent[id];
+            }
+            for (int k = 1; k < levels; k++) {
+                int[] previous = up[k - 1];
+                int[] current = new int[size];
+                for (int id = 0; id < size; id++) {
+                    current[id] = previous[previous[id]];
+                }
+                up[k] = current;
+            }
+        }
+
+        int depth(int id) {
+            return depth[id];
+        }
+
+        int lowestCommonAncestor(int a, int b) {
+            if (root[a] != root[b]) throw new IllegalArgumentException("Bodies " + a + " and " + b + " are not connected");
+
+            if (depth[a] < depth[b]) {
+                int swap = a;
+                a = b;
+                b = swap;
+            }
+            for (int k = up.length - 1, climb = depth[a] - depth[b]; k >= 0; k--) {
+                if ((climb >> k & 1) != 0) a = up[k][a];
+            }
+            if (a == b) return a;
+
+            for (int k = up.length - 1; k >= 0; k--) {
+                if (up[k][a] != up[k][b]) {
+                    a = up[k][a];
+                    b = up[k][b];
+                }
+            }
+            return up[0][a];
+        }
+
+        int distance(int a, int b) {
+            return depth[a] + depth[b] - 2 * depth[lowestCommonAncestor(a, b)];
+        }
+
+        /* Orbital transfers needed to move from the body `from` orbits to the body `to` orbits */
+        int transfers(int from, int to) {
+            if (tree.parent[from] < 0 || tree.parent[to] < 0) {
+                throw new IllegalArgumentException("Both bodies must orbit something");
             }
+            return distance(tree.parent[from], tree.parent[to]);
+        }
+
+        /* transfers(from[i], to[i]) for every i, queries run in parallel */
+        int[] transfers(int[] from, int[] to) {
+            if (from.length != to.length) throw new IllegalArgumentException("from and to differ in length");
+            int[] result = new int[from.length];
+            IntStream.range(0, from.length).parallel().forEach(i -> result[i] = transfers(from[i], to[i]));
+            return result;
         }
     }
 }
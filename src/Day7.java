@@ -2,9 +2,15 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
 import java.util.function.IntBinaryOperator;
 import java.util.function.IntConsumer;
-import java.util.function.IntSupplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 @SuppressWarnings("ALL")
 public class Day7 {
@@ -15,29 +21,124 @@ public class Day7 {
 
     static final Path INPUT_PATH = Path.of(".", "input7.txt");
 
-    static <T> Set<List<T>> permutation(List<T> choices) {
-        return permutation(Collections.emptyList(), choices);
+    /* Every permutation of phases in lexicographic order. The same array is reused, don't hold on to it */
+    static Stream<int[]> permutations(int[] phases, boolean parallel) {
+        return StreamSupport.stream(new PermutationSpliterator(phases), parallel);
     }
 
-    static <T> Set<List<T>> permutation(List<T> prefix, List<T> suffix) {
-        Set<List<T>> ps = new HashSet<>();
+    /*
+     * Lexicographic permutations of distinct values, generated in place. Covers ranks [rank, end) and splits
+     * the range in halves, unranking through the factorial number system on the first advance.
+     */
+    static class PermutationSpliterator implements Spliterator<int[]> {
+        private static final int MAX_SIZE = 20; /* 21! overflows a long */
+
+        private final int[] sorted;
+        private final int[] current;
+        private long rank;
+        private long end;
+        private boolean positioned;
+
+        PermutationSpliterator(int[] values) {
+            this(sortedCopy(values), 0, factorial(values.length));
+        }
 
-        if (suffix.size() == 0) {
-            ps.add(prefix);
-            return ps;
+        private PermutationSpliterator(int[] sorted, long rank, long end) {
+            this.sorted = sorted;
+            this.current = new int[sorted.length];
+            this.rank = rank;
+            this.end = end;
         }
 
-        for (T choice : suffix) {
-            List<T> newSuffix = new java.util.ArrayList<>(suffix);
-            List<T> newPrefix = new java.util.ArrayList<>(prefix);
+        private static int[] sortedCopy(int[] values) {
+            if (values.length > MAX_SIZE) throw new IllegalArgumentException("At most " + MAX_SIZE + " values");
+            int[] sorted = Arrays.copyOf(values, values.length);
+            Arrays.sort(sorted);
+            for (int i = 1; i < sorted.length; i++) {
+                if (sorted[i] == sorted[i - 1]) throw new IllegalArgumentException("Duplicate value: " + sorted[i]);
+            }
+            return sorted;
+        }
 
-            newSuffix.remove(choice);
-            newPrefix.add(choice);
+        static long factorial(int n) {
+            long f = 1;
+            for (int i = 2; i <= n; i++) f *= i;
+            return f;
+        }
 
-            ps.addAll(permutation(newPrefix, newSuffix));
+        private void unrank() {
+            int n = sorted.length;
+            boolean[] used = new boolean[n];
+            long remaining = rank;
+            for (int i = 0; i < n; i++) {
+                long block = factorial(n - i - 1);
+                int skip = (int) (remaining / block);
+                remaining %= block;
+                for (int j = 0; j < n; j++) {
+                    if (used[j]) continue;
+                    if (skip-- == 0) {
+                        used[j] = true;
+                        current[i] = sorted[j];
+                        break;
+                    }
+                }
+            }
+            positioned = true;
         }
 
-        return ps;
+        private void nextPermutation() {
+            int i = current.length - 2;
+            while (i >= 0 && current[i] >= current[i + 1]) i--;
+            if (i < 0) return;
+            int j = current.length - 1;
+            while (current[j] <= current[i]) j--;
+            swap(i, j);
+            for (int l = i + 1, r = current.length - 1; l < r; l++, r--) swap(l, r);
+        }
+
+        private void swap(int i, int j) {
+            int t = current[i];
+            current[i] = current[j];
+            current[j] = t;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super int[]> action) {
+            if (rank >= end) return false;
+            if (positioned) nextPermutation();
+            else unrank();
+            rank++;
+            action.accept(current);
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super int[]> action) {
+            //noinspection StatementWithEmptyBody
+            while (tryAdvance(action)) ;
+        }
+
+        /* Hands out the first half, ORDERED requires a prefix */
+        @Override
+        public Spliterator<int[]> trySplit() {
+            long size = end - rank;
+            if (size < 2) return null;
+            long middle = rank + size / 2;
+            Spliterator<int[]> prefix = new PermutationSpliterator(sorted, rank, middle);
+            rank = middle;
+            positioned = false;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return end - rank;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | SIZED | SUBSIZED | NONNULL;
+        }
     }
 
     private static int[] readProgram() throws IOException {
@@ -51,67 +152,13 @@ public class Day7 {
 
     static class Part1 {
         static long answer() throws IOException {
-            int[] source = readProgram();
-
-            return permutation(List.of(0, 1, 2, 3, 4))
-                    .stream()
-                    .mapToInt(phases -> {
-                        int signal = 0;
-                        for (Integer phase : phases) {
-                            signal = copyAndRun(source, supplyTwo(phase, signal));
-                        }
-                        return signal;
-                    })
-                    .max()
-                    .getAsInt();
-        }
-
-        /* Copies source and run it. Returns the last output of the machine or 0 */
-        static int copyAndRun(int[] source, IntSupplier read) {
-            int[] memory = Arrays.copyOf(source, source.length);
-            int[] out = new int[1];
-
-            Day5.runIntCode(memory, read, w -> out[0] = w);
-            return out[0];
-        }
-
-        static IntSupplier supplyTwo(int first, int second) {
-            return new IntSupplier() {
-                boolean isSecond = false;
-                public int getAsInt() {
-                    if (isSecond) {
-                        return second;
-                    } else {
-                        isSecond = true;
-                        return first;
-                    }
-                }
-            };
+            return new PhaseSearch(readProgram(), false).search(new int[]{0, 1, 2, 3, 4}).signal;
         }
     }
 
     static class Part2 {
         static long answer() throws IOException {
-            int[] source = readProgram();
-
-            return permutation(List.of(5, 6, 7, 8, 9))
-                    .stream()
-                    .mapToLong(phases -> runWithPhase(source, phases))
-                    .max()
-                    .getAsLong();
-        }
-
-        static long runWithPhase(int[] source, List<Integer> phases) {
-            assert phases.size() == 5;
-
-            AmplifierSequence amplifierSequence = new AmplifierSequence();
-            amplifierSequence.register(new Amplifier(Arrays.copyOf(source, source.length), amplifierSequence, List.of(phases.get(1))));
-            amplifierSequence.register(new Amplifier(Arrays.copyOf(source, source.length), amplifierSequence, List.of(phases.get(0))));
-            amplifierSequence.register(new Amplifier(Arrays.copyOf(source, source.length), amplifierSequence, List.of(phases.get(2))));
-            amplifierSequence.register(new Amplifier(Arrays.copyOf(source, source.length), amplifierSequence, List.of(phases.get(3))));
-            amplifierSequence.register(new Amplifier(Arrays.copyOf(source, source.length), amplifierSequence, List.of(phases.get(4), 0)));
-
-            return amplifierSequence.start();
+            return new PhaseSearch(readProgram(), true).search(new int[]{5, 6, 7, 8, 9}).signal;
         }
 
         static class AsynchronousIntCodeMachine {
@@ -131,6 +178,13 @@ public class Day7 {
                 state = State.INITIALIZED;
             }
 
+            /* Overwrites memory with source, which must have the same length, and rewinds the machine */
+            void reset(int[] source) {
+                System.arraycopy(source, 0, memory, 0, memory.length);
+                cursor = 0;
+                state = State.INITIALIZED;
+            }
+
             private int load(Day5.AddressingMode mode, int address) {
                 return mode == Day5.AddressingMode.POSITION
                         ? memory[memory[address]]
@@ -223,78 +277,420 @@ public class Day7 {
 
             boolean hasNotStarted() { return state == State.INITIALIZED; }
             boolean hasHalted() { return state == State.HALTED; }
+            boolean isWaitingForInput() { return state == State.WAITING_FOR_INPUT; }
         }
+    }
 
-        /* Circular sequence of amplifiers */
-        static class AmplifierSequence {
-            List<Amplifier> amplifiers = new ArrayList<>();
+    /* Searches every phase permutation in parallel, each worker thread owns one set of amplifiers */
+    static class PhaseSearch {
+        private final int[] source;
+        private final boolean feedback;
 
-            Amplifier getPrevious(Amplifier a) {
-                int index = amplifiers.indexOf(a);
-                if (index >= 0) {
-                    int prevIndex = index == 0 ? amplifiers.size() - 1 : index - 1;
-                    return amplifiers.get(prevIndex);
-                } else {
-                    throw new IllegalStateException("The supplied Amplifier is not registered with the sequence");
+        PhaseSearch(int[] source, boolean feedback) {
+            this.source = source;
+            this.feedback = feedback;
+        }
+
+        static class Result {
+            final long signal;
+            final int[] phases;
+            final long permutations;
+            final long nanos;
+
+            Result(long signal, int[] phases, long permutations, long nanos) {
+                this.signal = signal;
+                this.phases = phases;
+                this.permutations = permutations;
+                this.nanos = nanos;
+            }
+
+            double permutationsPerSecond() {
+                return nanos == 0 ? Double.POSITIVE_INFINITY : permutations * 1e9 / nanos;
+            }
+
+            @Override
+            public String toString() {
+                return "Result{" +
+                        "signal=" + signal +
+                        ", phases=" + Arrays.toString(phases) +
+                        ", permutations=" + permutations +
+                        ", permutationsPerSecond=" + Math.round(permutationsPerSecond()) +
+                        '}';
+            }
+        }
+
+        /* Highest signal seen so far and the phases that produced it */
+        private static class Best {
+            long signal = Long.MIN_VALUE;
+            int[] phases;
+
+            void offer(long signal, int[] phases) {
+                if (signal > this.signal) {
+                    this.signal = signal;
+                    this.phases = phases.clone();
                 }
             }
 
-            void register(Amplifier a) {
-                amplifiers.add(a);
+            void merge(Best that) {
+                if (that.phases != null) offer(that.signal, that.phases);
             }
+        }
+
+        Result search(int[] phases) {
+            if (phases.length == 0) throw new IllegalArgumentException("At least one amplifier is needed");
+            ThreadLocal<Amplifiers> workers = ThreadLocal.withInitial(() -> new Amplifiers(source, phases.length, feedback));
+
+            long start = System.nanoTime();
+            Best best = permutations(phases, true)
+                    .collect(Best::new, (b, p) -> b.offer(workers.get().run(p), p), Best::merge);
+            long nanos = System.nanoTime() - start;
 
-            /* Start the pipeline and returns the last output of the last amplifier */
-            int start() {
-                Amplifier last = amplifiers.get(amplifiers.size() - 1);
-                return last.start();
+            return new Result(best.signal, best.phases, PermutationSpliterator.factorial(phases.length), nanos);
+        }
+    }
+
+    /*
+     * A chain of amplifiers, optionally feeding the last output back into the first. The network is built
+     * once and reset from the pristine program for every run.
+     */
+    static class Amplifiers {
+        static final int QUEUE_CAPACITY = 1024;
+
+        private final AmplifierNetwork network;
+
+        Amplifiers(int[] source, int count, boolean feedback) {
+            network = new AmplifierNetwork(QUEUE_CAPACITY);
+            for (int i = 0; i < count; i++) {
+                network.addAmplifier(source);
+            }
+            for (int i = 0; i < count - 1; i++) {
+                network.connect(i, i + 1);
             }
+            if (feedback) network.connect(count - 1, 0);
         }
 
-        static class Amplifier implements IntSupplier, IntConsumer {
-            private final AsynchronousIntCodeMachine machine;
-            private final AmplifierSequence sequence;
-            private Queue<Integer> output;
+        /* Returns the last output of the last amplifier once every machine halted */
+        int run(int[] phases) {
+            if (phases.length != network.size()) throw new IllegalArgumentException("Expected " + network.size() + " phases");
 
-            Amplifier(int[] memory, AmplifierSequence sequence, List<Integer> initialOutput){
-                machine = new AsynchronousIntCodeMachine(memory, this);
-                this.sequence = sequence;
-                output = new LinkedList<>(initialOutput);
+            network.reset();
+            for (int i = 0; i < phases.length; i++) {
+                network.offer(i, phases[i]);
             }
+            network.offer(0, 0);
+            network.run();
 
-            @Override
-            public int getAsInt() {
-                while (output.isEmpty()) {
-                    if (machine.hasNotStarted()) {
-                        machine.start();
-                    } else if (machine.hasHalted()) {
-                        throw new RuntimeException("No output is available");
-                    } else {
-                        int input = sequence.getPrevious(this).getAsInt();
-                        machine.continueWith(input);
-                    }
+            if (!network.hasHalted()) throw new IllegalStateException("Amplifiers are waiting on each other");
+            return network.lastOutput(network.size() - 1);
+        }
+    }
+
+    /*
+     * Intcode machines wired into any directed graph, cycles included. Every output of a machine is copied
+     * to the input queue of each of its successors; machines with several predecessors read their inputs in
+     * arrival order. A ready queue schedules only machines that have not started or have pending input, so
+     * running never recurses from one machine into another.
+     */
+    static class AmplifierNetwork {
+        private final int capacity;
+        private final List<int[]> programs = new ArrayList<>();
+        private final List<Part2.AsynchronousIntCodeMachine> machines = new ArrayList<>();
+        private final List<IntQueue> inputs = new ArrayList<>();
+        private final List<int[]> successors = new ArrayList<>();
+        private int[] lastOutput = new int[0];
+        private boolean[] hasOutput = new boolean[0];
+        private boolean[] scheduled = new boolean[0];
+        private IntQueue ready = new IntQueue(1);
+
+        /* capacity bounds every input queue, a machine overflowing one is an error */
+        AmplifierNetwork(int capacity) {
+            this.capacity = capacity;
+        }
+
+        int size() {
+            return machines.size();
+        }
+
+        /* Returns the id of the new amplifier */
+        int addAmplifier(int[] program) {
+            int id = machines.size();
+            programs.add(program);
+            machines.add(new Part2.AsynchronousIntCodeMachine(Arrays.copyOf(program, program.length), value -> deliver(id, value)));
+            inputs.add(new IntQueue(capacity));
+            successors.add(new int[0]);
+
+            lastOutput = Arrays.copyOf(lastOutput, id + 1);
+            hasOutput = Arrays.copyOf(hasOutput, id + 1);
+            scheduled = Arrays.copyOf(scheduled, id + 1);
+            ready = new IntQueue(id + 1);
+            return id;
+        }
+
+        void connect(int from, int to) {
+            checkId(to);
+            int[] current = successors.get(checkId(from));
+            int[] extended = Arrays.copyOf(current, current.length + 1);
+            extended[current.length] = to;
+            successors.set(from, extended);
+        }
+
+        private int checkId(int id) {
+            if (id < 0 || id >= machines.size()) throw new IllegalArgumentException("Unknown amplifier: " + id);
+            return id;
+        }
+
+        /* Rewinds every machine to its program and drops pending values */
+        void reset() {
+            for (int id = 0; id < machines.size(); id++) {
+                machines.get(id).reset(programs.get(id));
+                inputs.get(id).clear();
+            }
+            Arrays.fill(hasOutput, false);
+            Arrays.fill(scheduled, false);
+            ready.clear();
+        }
+
+        /* Feeds a value from outside the network */
+        void offer(int id, int value) {
+            enqueue(checkId(id), value);
+        }
+
+        private void enqueue(int id, int value) {
+            if (!inputs.get(id).offer(value)) {
+                throw new IllegalStateException("Input queue of amplifier " + id + " is full");
+            }
+            schedule(id);
+        }
+
+        private void deliver(int from, int value) {
+            lastOutput[from] = value;
+            hasOutput[from] = true;
+            for (int to : successors.get(from)) {
+                enqueue(to, value);
+            }
+        }
+
+        private void schedule(int id) {
+            if (!scheduled[id]) {
+                scheduled[id] = true;
+                ready.offer(id);
+            }
+        }
+
+        /* Runs until every machine halted or waits for input nobody will provide */
+        void run() {
+            for (int id = 0; id < machines.size(); id++) {
+                if (machines.get(id).hasNotStarted()) schedule(id);
+            }
+
+            while (!ready.isEmpty()) {
+                int id = ready.poll();
+                scheduled[id] = false;
+
+                Part2.AsynchronousIntCodeMachine machine = machines.get(id);
+                IntQueue input = inputs.get(id);
+                if (machine.hasNotStarted()) machine.start();
+                while (machine.isWaitingForInput() && !input.isEmpty()) {
+                    machine.continueWith(input.poll());
                 }
-                return output.poll();
             }
+        }
 
-            @Override
-            public void accept(int value) {
-                output.offer(value);
+        boolean hasHalted() {
+            for (Part2.AsynchronousIntCodeMachine machine : machines) {
+                if (!machine.hasHalted()) return false;
             }
+            return true;
+        }
+
+        int lastOutput(int id) {
+            if (!hasOutput[checkId(id)]) throw new IllegalStateException("Amplifier " + id + " has not output");
+            return lastOutput[id];
+        }
+    }
+
+    /*
+     * Runs every amplifier of a chain or feedback loop on its own thread, adjacent amplifiers connected by
+     * SpscLongRing. Threads come from the given factory, so a virtual thread factory can be used where the
+     * JDK has one.
+     */
+    static class AmplifierPipeline {
+        private final long[] program;
+        private final boolean feedback;
+        private final int capacity;
+        private final ThreadFactory threadFactory;
+
+        AmplifierPipeline(long[] program, boolean feedback, int capacity, ThreadFactory threadFactory) {
+            this.program = program;
+            this.feedback = feedback;
+            this.capacity = capacity;
+            this.threadFactory = threadFactory;
+        }
+
+        AmplifierPipeline(long[] program, boolean feedback) {
+            this(program, feedback, 1024, runnable -> {
+                Thread thread = new Thread(runnable);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        /* Returns the last output of the last amplifier once every thread finished */
+        long run(long[] phases) throws InterruptedException {
+            int count = phases.length;
+            if (count == 0) throw new IllegalArgumentException("At least one amplifier is needed");
 
-            int start() {
-                while (!machine.hasHalted()) {
-                    if (machine.hasNotStarted()) {
-                        machine.start();
-                    } else {
-                        int input = sequence.getPrevious(this).getAsInt();
-                        machine.continueWith(input);
+            SpscLongRing[] rings = new SpscLongRing[count];
+            for (int i = 0; i < count; i++) {
+                rings[i] = new SpscLongRing(capacity);
+                rings[i].put(phases[i]);
+            }
+            rings[0].put(0);
+
+            long[] lastSignal = new long[1];
+            boolean[] hasSignal = new boolean[1];
+            AtomicReference<Throwable> failure = new AtomicReference<>();
+            Thread[] threads = new Thread[count];
+
+            for (int i = 0; i < count; i++) {
+                SpscLongRing input = rings[i];
+                SpscLongRing output = i < count - 1 ? rings[i + 1] : feedback ? rings[0] : null;
+                boolean last = i == count - 1;
+
+                threads[i] = threadFactory.newThread(() -> {
+                    try {
+                        new IntCodeMachine(program).runSynchronously(input::take, value -> {
+                            if (last) {
+                                lastSignal[0] = value;
+                                hasSignal[0] = true;
+                            }
+                            if (output != null) output.put(value);
+                        });
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                        for (SpscLongRing ring : rings) {
+                            ring.close();
+                            ring.abandon();
+                        }
+                    } finally {
+                        input.abandon();
+                        if (output != null) output.close();
                     }
+                });
+            }
+
+            for (Thread thread : threads) thread.start();
+            for (Thread thread : threads) thread.join();
+
+            if (failure.get() != null) throw new IllegalStateException("Amplifier failed", failure.get());
+            if (!hasSignal[0]) throw new IllegalStateException("Last amplifier has not output");
+            return lastSignal[0];
+        }
+    }
+
+    /*
+     * Lock-free single producer, single consumer ring of longs. Each side publishes its index with an
+     * ordered store and caches the index of the other side, so it only reads it again when the ring looks
+     * full or empty. Waiting spins, then yields, then parks briefly.
+     */
+    static class SpscLongRing {
+        private static final int SPINS = 128;
+
+        private final long[] buffer;
+        private final int mask;
+        private final AtomicLong head = new AtomicLong(); /* next index to take, written by the consumer */
+        private final AtomicLong tail = new AtomicLong(); /* next index to put, written by the producer */
+        private long cachedHead; /* producer only */
+        private long cachedTail; /* consumer only */
+        private volatile boolean closed; /* the producer will not put anymore */
+        private volatile boolean abandoned; /* the consumer will not take anymore */
+
+        /* capacity is rounded up to a power of two */
+        SpscLongRing(int capacity) {
+            if (capacity < 1 || capacity > 1 << 30) throw new IllegalArgumentException("Invalid capacity: " + capacity);
+            int size = Integer.highestOneBit(capacity);
+            if (size < capacity) size <<= 1;
+            buffer = new long[size];
+            mask = size - 1;
+        }
+
+        /* Waits while the ring is full, values put after the consumer abandoned the ring are dropped */
+        void put(long value) {
+            long t = tail.get();
+            if (t - cachedHead == buffer.length) {
+                for (int spins = 0; t - (cachedHead = head.get()) == buffer.length; spins++) {
+                    if (abandoned) return;
+                    idle(spins);
                 }
+            }
+            buffer[(int) t & mask] = value;
+            tail.lazySet(t + 1);
+        }
 
-                Integer signal = output.poll();
-                if (signal == null) throw new RuntimeException("Last amplifier has not output");
-                return signal;
+        /* Waits while the ring is empty, fails once it is empty and closed */
+        long take() {
+            long h = head.get();
+            if (h == cachedTail) {
+                for (int spins = 0; h == (cachedTail = tail.get()); spins++) {
+                    if (closed && h == (cachedTail = tail.get())) {
+                        throw new IllegalStateException("Producer has finished");
+                    }
+                    idle(spins);
+                }
             }
+            long value = buffer[(int) h & mask];
+            head.lazySet(h + 1);
+            return value;
+        }
+
+        void close() {
+            closed = true;
+        }
+
+        void abandon() {
+            abandoned = true;
+        }
+
+        private static void idle(int spins) {
+            if (spins < SPINS) Thread.onSpinWait();
+            else if (spins < 2 * SPINS) Thread.yield();
+            else LockSupport.parkNanos(10_000);
+        }
+    }
+
+    /* Bounded FIFO ring of ints */
+    static class IntQueue {
+        private final int[] values;
+        private int head;
+        private int size;
+
+        IntQueue(int capacity) {
+            values = new int[capacity];
+        }
+
+        /* False when the queue is full */
+        boolean offer(int value) {
+            if (size == values.length) return false;
+            values[(head + size) % values.length] = value;
+            size++;
+            return true;
+        }
+
+        int poll() {
+            if (size == 0) throw new NoSuchElementException("Queue is empty");
+            int value = values[head];
+            head = (head + 1) % values.length;
+            size--;
+            return value;
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        void clear() {
+            head = 0;
+            size = 0;
         }
     }
 }
@@ -1,9 +1,11 @@
 import java.io.IOException;
-import java.nio.file.Files;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Path;
-import java.util.Arrays;
-import java.util.Comparator;
-import java.util.stream.Collectors;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.IntStream;
 
 public class Day8 {
@@ -13,65 +15,211 @@ public class Day8 {
     }
 
     static final Path INPUT_PATH = Path.of(".", "input8.txt");
+    static final int WIDTH = 25;
+    static final int HEIGHT = 6;
 
     private static class Part1 {
-        static final int LAYER_SIZE = 25 * 6;
-
         public static long answer() throws IOException {
-            String input = Files.readString(INPUT_PATH);
-            int[] digits = new int[input.length()];
-            for (int i = 0; i < input.length(); i++) {
-                digits[i] = Character.digit(input.charAt(i), 10);
+            ImageDecoder decoder = ImageDecoder.map(INPUT_PATH, WIDTH, HEIGHT);
+            int layer = decoder.layerWithFewest(0);
+            return decoder.count(layer, 1) * decoder.count(layer, 2);
+        }
+    }
+
+    private static class Part2 {
+        static final char WHITE = '\u25A1';
+        static final char BLACK = '\u25A0';
+
+        public static String answer() throws IOException {
+            ImageDecoder decoder = ImageDecoder.map(INPUT_PATH, WIDTH, HEIGHT);
+            StringWriter writer = new StringWriter();
+            decoder.render(decoder.composite(), writer, BLACK, WHITE);
+            return writer.toString();
+        }
+    }
+
+    /*
+     * Space Image Format of any width and height. Reads layers of ASCII digits straight from memory mapped
+     * windows of the file, every window holding whole layers. Trailing bytes that don't fill a layer are
+     * ignored.
+     */
+    static class ImageDecoder {
+        static final byte TRANSPARENT = 2;
+
+        private static final long ONES = 0x0101010101010101L;
+        private static final long LOW_SEVEN_BITS = 0x7F7F7F7F7F7F7F7FL;
+
+        private final int width;
+        private final int height;
+        private final int layerSize;
+        private final int layers;
+        private final int layersPerWindow;
+        private final ByteBuffer[] windows;
+
+        private ImageDecoder(int width, int height, int layers, int layersPerWindow, ByteBuffer[] windows) {
+            this.width = width;
+            this.height = height;
+            this.layerSize = width * height;
+            this.layers = layers;
+            this.layersPerWindow = layersPerWindow;
+            this.windows = windows;
+        }
+
+        static ImageDecoder map(Path path, int width, int height) throws IOException {
+            if (width <= 0 || height <= 0 || (long) width * height > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Invalid dimensions: " + width + "x" + height);
+            }
+            int layerSize = width * height;
+
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                long layers = channel.size() / layerSize;
+                if (layers > Integer.MAX_VALUE) throw new IllegalArgumentException("Too many layers: " + layers);
+
+                int layersPerWindow = Integer.MAX_VALUE / layerSize;
+                ByteBuffer[] windows = new ByteBuffer[(int) ((layers + layersPerWindow - 1) / layersPerWindow)];
+                for (int w = 0; w < windows.length; w++) {
+                    long first = (long) w * layersPerWindow;
+                    long count = Math.min(layersPerWindow, layers - first);
+                    windows[w] = channel.map(FileChannel.MapMode.READ_ONLY, first * layerSize, count * layerSize);
+                }
+                return new ImageDecoder(width, height, (int) layers, layersPerWindow, windows);
             }
+        }
+
+        int layers() {
+            return layers;
+        }
 
+        int width() {
+            return width;
+        }
 
-            @SuppressWarnings("OptionalGetWithoutIsPresent")
-            int[] layer = IntStream
-                    .range(0, input.length() / LAYER_SIZE)
-                    .mapToObj(i -> Arrays.stream(digits).skip(i * LAYER_SIZE).limit(LAYER_SIZE).toArray())
-                    .min(Comparator.comparing(array -> countEqual(array, 0)))
-                    .get();
+        int height() {
+            return height;
+        }
 
-            return countEqual(layer, 1) * countEqual(layer, 2);
+        private ByteBuffer window(int layer) {
+            return windows[layer / layersPerWindow];
         }
 
-        static int countEqual(int[] array, int i) {
+        private int offset(int layer) {
+            return (layer % layersPerWindow) * layerSize;
+        }
+
+        /* Value of the pixel, 0 to 9 */
+        int pixel(int layer, int index) {
+            return window(layer).get(offset(layer) + index) - '0';
+        }
+
+        /* Occurrences of digit in the layer, eight bytes at a time */
+        int count(int layer, int digit) {
+            ByteBuffer window = window(layer);
+            int offset = offset(layer);
+            int end = offset + layerSize;
+            long pattern = ONES * ('0' + digit);
             int count = 0;
-            for (int value : array) {
-                if (value == i) count++;
+
+            int i = offset;
+            for (; i + Long.BYTES <= end; i += Long.BYTES) {
+                long x = window.getLong(i) ^ pattern;
+                /* high bit of every byte that was zero, i.e. equal to the digit */
+                long zeros = ~(((x & LOW_SEVEN_BITS) + LOW_SEVEN_BITS) | x | LOW_SEVEN_BITS);
+                count += Long.bitCount(zeros);
+            }
+            for (; i < end; i++) {
+                if (window.get(i) == '0' + digit) count++;
             }
+
             return count;
         }
-    }
 
-    private static class Part2 {
-        static final int WIDTH = 25;
-        static final int HEIGHT = 6;
-        static final int LAYER_SIZE = WIDTH * HEIGHT;
+        /* First layer with the fewest occurrences of digit */
+        int layerWithFewest(int digit) {
+            if (layers == 0) throw new IllegalStateException("Image has no layers");
+            int best = 0;
+            int bestCount = Integer.MAX_VALUE;
+            for (int layer = 0; layer < layers; layer++) {
+                int count = count(layer, digit);
+                if (count < bestCount) {
+                    best = layer;
+                    bestCount = count;
+                }
+            }
+            return best;
+        }
 
-        static final String WHITE = "\u25A1";
-        static final String BLACK = "\u25A0";
+        /*
+         * Pixel values seen from the top, layer 0 first. Only pixels that are still transparent are read from
+         * the next layer, and decoding stops as soon as none is left.
+         */
+        byte[] composite() {
+            return composite(0, layers);
+        }
 
-        public static String answer() throws IOException {
-            String input = Files.readString(INPUT_PATH);
-            int[] digits = new int[input.length()];
-            for (int i = 0; i < input.length(); i++) {
-                digits[i] = Character.digit(input.charAt(i), 10);
+        /* Composite of layers [from, to), transparent where all of them are */
+        byte[] composite(int from, int to) {
+            byte[] pixels = new byte[layerSize];
+            int[] pending = new int[layerSize];
+            for (int i = 0; i < layerSize; i++) {
+                pixels[i] = TRANSPARENT;
+                pending[i] = i;
             }
 
+            int remaining = layerSize;
+            for (int layer = from; layer < to && remaining > 0; layer++) {
+                ByteBuffer window = window(layer);
+                int offset = offset(layer);
+                int stillPending = 0;
+                for (int p = 0; p < remaining; p++) {
+                    int index = pending[p];
+                    byte value = (byte) (window.get(offset + index) - '0');
+                    if (value == TRANSPARENT) {
+                        pending[stillPending++] = index;
+                    } else {
+                        pixels[index] = value;
+                    }
+                }
+                remaining = stillPending;
+            }
+
+            return pixels;
+        }
+
+        /*
+         * Placing a composite over another is associative, so ranges of layers are composited in parallel and
+         * merged top over bottom.
+         */
+        byte[] compositeParallel() {
+            int chunks = Math.max(1, Math.min(layers, ForkJoinPool.getCommonPoolParallelism() * 4));
             return IntStream
-                    .range(0, input.length() / LAYER_SIZE)
-                    .mapToObj(i -> Arrays.stream(digits).skip(i * LAYER_SIZE).limit(LAYER_SIZE).toArray())
-                    .reduce((first, second) -> {
-                        for (int i = 0; i < first.length; i++) {
-                            if (first[i] == 2) first[i] = second[i];
-                        }
-                        return first;
-                    })
-                    .map(array -> Arrays.stream(array).mapToObj(i -> i == 0 ? BLACK : WHITE))
-                    .map(stream -> stream.collect(Collectors.joining("")))
-                    .map(s -> s.replaceAll("(.{25})", "$1\n"))
-                    .get();
+                    .range(0, chunks)
+                    .parallel()
+                    .mapToObj(c -> composite((int) ((long) layers * c / chunks), (int) ((long) layers * (c + 1) / chunks)))
+                    .reduce(ImageDecoder::over)
+                    .orElseGet(() -> composite(0, 0));
+        }
+
+        /* top over bottom, reusing top */
+        static byte[] over(byte[] top, byte[] bottom) {
+            for (int i = 0; i < top.length; i++) {
+                if (top[i] == TRANSPARENT) top[i] = bottom[i];
+            }
+            return top;
+        }
+
+        /* Writes one line per row, black for 0 and white otherwise */
+        void render(byte[] pixels, Writer writer, char black, char white) throws IOException {
+            if (pixels.length != layerSize) throw new IllegalArgumentException("Expected " + layerSize + " pixels");
+
+            char[] row = new char[width + 1];
+            row[width] = '\n';
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    row[x] = pixels[y * width + x] == 0 ? black : white;
+                }
+                writer.write(row);
+            }
+            writer.flush();
         }
     }
-}
\ No newline at end of file
+}